@@ -2,6 +2,9 @@ package org.fulib;
 
 import org.fulib.tools.*;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
 public class FulibTools
 {
 
@@ -84,4 +87,24 @@ public class FulibTools
    {
       return new ScenarioDiagrams();
    }
+
+   /**
+    * Starts initializing the Graphviz engine that renders all diagrams on a background thread,
+    * so that the first diagram does not have to wait for it.
+    * Call this as early as possible, e.g. in a static initializer or a {@code @BeforeClass} method.
+    * <p>
+    * Example use:
+    * <pre>
+    * FulibTools.warmUp().thenAccept(time -&gt; System.out.println("Graphviz ready after " + time.toMillis() + " ms"));
+    * </pre>
+    *
+    * @return a future that completes with the time the initialization took
+    *
+    * @see GraphvizEngines#warmUp()
+    * @since 1.7
+    */
+   public static CompletableFuture<Duration> warmUp()
+   {
+      return GraphvizEngines.warmUp();
+   }
 }
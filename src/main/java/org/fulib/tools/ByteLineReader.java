@@ -0,0 +1,429 @@
+package org.fulib.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+/**
+ * Reads UTF-8 text line by line without decoding it.
+ * Lines are exposed as ranges of an internal byte buffer, and only decoded on request.
+ * Lines are terminated by {@code \n}, {@code \r} or {@code \r\n}, like in {@link java.io.BufferedReader#readLine()}.
+ * <p>
+ * The buffer is reused between readers on the same thread,
+ * so reading a file only allocates memory if one of its lines is longer than any line read before.
+ * <p>
+ * Callers that find out while reading that they need the whole input again can {@linkplain #retainInput() retain}
+ * it, which copies the buffer instead of reading the input a second time.
+ */
+final class ByteLineReader implements Closeable
+{
+   // =============== Constants ===============
+
+   private static final int BUFFER_SIZE = 64 * 1024;
+   private static final int MAX_CACHED_BUFFER_SIZE = 1024 * 1024;
+
+   private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<>();
+
+   // =============== Fields ===============
+
+   private final InputStream input;
+   private final Checksum checksum;
+
+   private byte[] buffer;
+   private int limit;
+   private boolean eof;
+
+   private int lineStart;
+   private int lineEnd;
+   private int next;
+   private int lineNumber;
+   private long bytesRead;
+
+   private int retainLimit;
+   private byte[] retained;
+   private int retainedLength;
+   private boolean startDiscarded;
+
+   // =============== Constructors ===============
+
+   /**
+    * @param input
+    *    the input stream, which is closed together with this reader
+    * @param checksum
+    *    a checksum that is updated with all bytes read from the input, or {@code null}
+    */
+   ByteLineReader(InputStream input, Checksum checksum)
+   {
+      this.input = input;
+      this.checksum = checksum;
+
+      final byte[] cached = BUFFERS.get();
+      if (cached != null)
+      {
+         BUFFERS.remove();
+         this.buffer = cached;
+      }
+      else
+      {
+         this.buffer = new byte[BUFFER_SIZE];
+      }
+   }
+
+   // =============== Static Methods ===============
+
+   /**
+    * @param bytes
+    *    the bytes to search
+    * @param start
+    *    the index to start searching at (inclusive)
+    * @param end
+    *    the index to stop searching at (exclusive)
+    * @param needle
+    *    the bytes to search for
+    *
+    * @return the index of the first occurrence of {@code needle} within the range, or {@code -1} if not found
+    */
+   static int indexOf(byte[] bytes, int start, int end, byte[] needle)
+   {
+      final byte first = needle[0];
+      final int max = end - needle.length;
+
+      outer:
+      for (int i = start; i <= max; i++)
+      {
+         if (bytes[i] != first)
+         {
+            continue;
+         }
+         for (int j = 1; j < needle.length; j++)
+         {
+            if (bytes[i + j] != needle[j])
+            {
+               continue outer;
+            }
+         }
+         return i;
+      }
+      return -1;
+   }
+
+   // =============== Properties ===============
+
+   /**
+    * @return the 1-based number of the current line
+    */
+   int getLineNumber()
+   {
+      return this.lineNumber;
+   }
+
+   /**
+    * @return the length of the current line in bytes, excluding the line terminator
+    */
+   int getLineLength()
+   {
+      return this.lineEnd - this.lineStart;
+   }
+
+   /**
+    * @return the number of bytes read from the input so far
+    */
+   long getBytesRead()
+   {
+      return this.bytesRead;
+   }
+
+   /**
+    * @param retainLimit
+    *    the maximum number of bytes {@link #retainInput()} keeps, or {@code 0} to never keep the input
+    */
+   void setRetainLimit(int retainLimit)
+   {
+      this.retainLimit = retainLimit;
+   }
+
+   /**
+    * @return the complete input if it was {@linkplain #retainInput() retained} and the end of the input was reached,
+    * otherwise {@code null}
+    */
+   byte[] getRetainedInput()
+   {
+      if (this.retained == null || !this.eof)
+      {
+         return null;
+      }
+      return this.retained.length == this.retainedLength ?
+         this.retained :
+         Arrays.copyOf(this.retained, this.retainedLength);
+   }
+
+   // =============== Methods ===============
+
+   /**
+    * Starts keeping a copy of the whole input, including the bytes read so far.
+    * Does nothing if the copy was already started, or if the start of the input is no longer in the buffer.
+    * The copy is dropped if the input turns out to be longer than the {@linkplain #setRetainLimit(int) limit}.
+    */
+   void retainInput()
+   {
+      if (this.retained == null && !this.startDiscarded && this.limit <= this.retainLimit)
+      {
+         this.retained = Arrays.copyOf(this.buffer, this.limit);
+         this.retainedLength = this.limit;
+      }
+   }
+
+   private void retain(int start, int length)
+   {
+      final int newLength = this.retainedLength + length;
+      if (newLength > this.retainLimit)
+      {
+         this.retained = null;
+         this.startDiscarded = true;
+         return;
+      }
+      if (newLength > this.retained.length)
+      {
+         this.retained = Arrays.copyOf(this.retained,
+                                       Math.min(Math.max(newLength, this.retained.length * 2), this.retainLimit));
+      }
+      System.arraycopy(this.buffer, start, this.retained, this.retainedLength, length);
+      this.retainedLength = newLength;
+   }
+
+   /**
+    * Advances to the next line.
+    *
+    * @return {@code true} if there is a next line, {@code false} if the end of the input was reached
+    *
+    * @throws IOException
+    *    if reading fails
+    */
+   boolean nextLine() throws IOException
+   {
+      int pos = this.next;
+      while (true)
+      {
+         for (; pos < this.limit; pos++)
+         {
+            final byte b = this.buffer[pos];
+            if (b == '\n')
+            {
+               return this.setLine(pos, pos + 1);
+            }
+            if (b == '\r')
+            {
+               if (pos + 1 < this.limit)
+               {
+                  return this.setLine(pos, this.buffer[pos + 1] == '\n' ? pos + 2 : pos + 1);
+               }
+               if (this.eof)
+               {
+                  return this.setLine(pos, pos + 1);
+               }
+               // need to look at the next byte to know if this is \r\n
+               break;
+            }
+         }
+
+         if (this.eof)
+         {
+            if (this.next < this.limit)
+            {
+               // last line without terminator
+               return this.setLine(this.limit, this.limit);
+            }
+            return false;
+         }
+
+         pos -= this.fill();
+      }
+   }
+
+   /**
+    * Advances to the next line that contains the given bytes.
+    *
+    * @param needle
+    *    the bytes to search for
+    *
+    * @return {@code true} if such a line was found, {@code false} if the end of the input was reached
+    *
+    * @throws IOException
+    *    if reading fails
+    */
+   boolean nextLineContaining(byte[] needle) throws IOException
+   {
+      while (this.nextLine())
+      {
+         if (this.lineContains(needle))
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Reads and discards the rest of the input.
+    * This ensures the checksum covers all bytes.
+    *
+    * @throws IOException
+    *    if reading fails
+    */
+   void skipRest() throws IOException
+   {
+      while (!this.eof)
+      {
+         this.next = this.limit;
+         this.fill();
+      }
+   }
+
+   private boolean setLine(int end, int next)
+   {
+      this.lineStart = this.next;
+      this.lineEnd = end;
+      this.next = next;
+      this.lineNumber++;
+      return true;
+   }
+
+   /**
+    * Discards everything before the next line, makes room and reads more input.
+    *
+    * @return the number of bytes the unread data was moved towards the start of the buffer
+    */
+   private int fill() throws IOException
+   {
+      final int shift = this.next;
+      final int remaining = this.limit - shift;
+      if (shift > 0)
+      {
+         System.arraycopy(this.buffer, shift, this.buffer, 0, remaining);
+         this.startDiscarded = true;
+      }
+      else if (remaining == this.buffer.length)
+      {
+         // a single line fills the whole buffer
+         this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+      }
+
+      this.lineStart -= shift;
+      this.lineEnd -= shift;
+      this.next = 0;
+      this.limit = remaining;
+
+      final int read = this.input.read(this.buffer, this.limit, this.buffer.length - this.limit);
+      if (read < 0)
+      {
+         this.eof = true;
+      }
+      else
+      {
+         if (this.checksum != null)
+         {
+            this.checksum.update(this.buffer, this.limit, read);
+         }
+         if (this.retained != null)
+         {
+            this.retain(this.limit, read);
+         }
+         this.limit += read;
+         this.bytesRead += read;
+      }
+      return shift;
+   }
+
+   /**
+    * @param needle
+    *    the bytes to search for
+    *
+    * @return {@code true} if the current line contains the given bytes
+    */
+   boolean lineContains(byte[] needle)
+   {
+      return indexOf(this.buffer, this.lineStart, this.lineEnd, needle) >= 0;
+   }
+
+   /**
+    * @param prefix
+    *    the prefix, consisting of ASCII characters
+    *
+    * @return the number of leading bytes of the current line that are equal to the characters of {@code prefix}
+    */
+   int commonPrefixLength(String prefix)
+   {
+      int i = 0;
+      final int length = Math.min(prefix.length(), this.lineEnd - this.lineStart);
+      while (i < length && this.buffer[this.lineStart + i] == prefix.charAt(i))
+      {
+         i++;
+      }
+      return i;
+   }
+
+   /**
+    * @return the current line, decoded as UTF-8
+    */
+   String getLine()
+   {
+      return new String(this.buffer, this.lineStart, this.lineEnd - this.lineStart, StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Decodes the current line as UTF-8 and appends it to the given builder.
+    *
+    * @param builder
+    *    the builder to append to
+    * @param offset
+    *    the number of bytes to skip at the start of the line
+    */
+   void appendLine(StringBuilder builder, int offset)
+   {
+      final int start = this.lineStart + offset;
+      for (int i = start; i < this.lineEnd; i++)
+      {
+         if (this.buffer[i] < 0)
+         {
+            // non-ASCII, needs proper decoding
+            builder.append(new String(this.buffer, start, this.lineEnd - start, StandardCharsets.UTF_8));
+            return;
+         }
+      }
+
+      builder.ensureCapacity(builder.length() + this.lineEnd - start);
+      for (int i = start; i < this.lineEnd; i++)
+      {
+         builder.append((char) this.buffer[i]);
+      }
+   }
+
+   /**
+    * Writes the current line to the given stream, without line terminator.
+    *
+    * @param output
+    *    the stream to write to
+    *
+    * @throws IOException
+    *    if writing fails
+    */
+   void writeLine(OutputStream output) throws IOException
+   {
+      output.write(this.buffer, this.lineStart, this.lineEnd - this.lineStart);
+   }
+
+   @Override
+   public void close() throws IOException
+   {
+      if (this.buffer.length <= MAX_CACHED_BUFFER_SIZE)
+      {
+         BUFFERS.set(this.buffer);
+      }
+      this.buffer = null;
+      this.input.close();
+   }
+}
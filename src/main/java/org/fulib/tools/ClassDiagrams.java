@@ -1,7 +1,6 @@
 package org.fulib.tools;
 
 import guru.nidi.graphviz.engine.Format;
-import guru.nidi.graphviz.engine.Graphviz;
 import guru.nidi.graphviz.engine.GraphvizException;
 import org.fulib.classmodel.AssocRole;
 import org.fulib.classmodel.ClassModel;
@@ -17,6 +16,7 @@ import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 import static java.util.Comparator.*;
@@ -41,6 +41,11 @@ public class ClassDiagrams
 
    private double scale = 1;
 
+   private DiagramCache cache;
+
+   private final LongAdder filesWritten = new LongAdder();
+   private final LongAdder filesUnchanged = new LongAdder();
+
    /**
     * @return the scale factor for rendering
     *
@@ -79,6 +84,67 @@ public class ClassDiagrams
       return this;
    }
 
+   /**
+    * @return the cache for rendered diagrams, or {@code null} if every diagram is rendered
+    *
+    * @since 1.7
+    */
+   public DiagramCache getCache()
+   {
+      return this.cache;
+   }
+
+   /**
+    * @param cache
+    *    the cache for rendered diagrams, or {@code null} to render every diagram
+    *
+    * @since 1.7
+    */
+   public void setCache(DiagramCache cache)
+   {
+      this.cache = cache;
+   }
+
+   /**
+    * Sets the cache for rendered diagrams, so that class diagrams that did not change are copied instead of rendered.
+    * Default is {@code null}, which renders every diagram.
+    *
+    * @param cache
+    *    the cache for rendered diagrams, or {@code null} to render every diagram
+    *
+    * @return this instance, to allow method chaining
+    *
+    * @since 1.7
+    */
+   public ClassDiagrams withCache(DiagramCache cache)
+   {
+      this.setCache(cache);
+      return this;
+   }
+
+   /**
+    * @return the number of diagram files that were written, because they did not exist or their content changed
+    *
+    * @since 1.7
+    */
+   public long getFilesWritten()
+   {
+      return this.filesWritten.sum();
+   }
+
+   /**
+    * Diagram files that already have the same content are not written again,
+    * so that build tools do not consider them changed.
+    *
+    * @return the number of diagram files that were left untouched, because they already had the same content
+    *
+    * @since 1.7
+    */
+   public long getFilesUnchanged()
+   {
+      return this.filesUnchanged.sum();
+   }
+
    /**
     * Create a class diagram of the given class model at the path
     * {@link ClassModel#getPackageSrcFolder() modelFolder}{@code /doc-files/classDiagram.png}.
@@ -152,7 +218,15 @@ public class ClassDiagrams
 
       try
       {
-         Graphviz.fromString(dotString).scale(this.getScale()).render(format).toFile(new File(diagramFileName));
+         final File file = new File(diagramFileName);
+         if (DiagramFiles.render(DiagramRenderer.graphviz(), this.cache, dotString, format, this.scale, file))
+         {
+            this.filesWritten.increment();
+         }
+         else
+         {
+            this.filesUnchanged.increment();
+         }
 
          return diagramFileName;
       }
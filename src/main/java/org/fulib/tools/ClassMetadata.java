@@ -0,0 +1,160 @@
+package org.fulib.tools;
+
+import org.fulib.StrUtil;
+import org.fulib.yaml.Reflector;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the properties of a class and their getters, so object diagrams do not look up the same methods
+ * for every object.
+ * <p>
+ * The metadata of a class is shared by all {@link ObjectDiagrams} and released together with the class.
+ * This class is thread-safe.
+ */
+final class ClassMetadata
+{
+   // =============== Constants ===============
+
+   private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+   private static final ClassValue<ClassMetadata> CACHE = new ClassValue<ClassMetadata>()
+   {
+      @Override
+      protected ClassMetadata computeValue(Class<?> type)
+      {
+         return new ClassMetadata(type);
+      }
+   };
+
+   // =============== Fields ===============
+
+   private final Class<?> type;
+
+   private volatile String[] properties;
+
+   private final Map<String, Property> propertyMap = new ConcurrentHashMap<>();
+
+   // =============== Constructors ===============
+
+   private ClassMetadata(Class<?> type)
+   {
+      this.type = type;
+   }
+
+   // =============== Static Methods ===============
+
+   static ClassMetadata of(Class<?> type)
+   {
+      return CACHE.get(type);
+   }
+
+   // =============== Methods ===============
+
+   /**
+    * @param reflector
+    *    the reflector for this class, used to find the properties the first time
+    *
+    * @return the properties of this class, which must not be modified
+    */
+   String[] getProperties(Reflector reflector)
+   {
+      String[] properties = this.properties;
+      if (properties == null)
+      {
+         properties = reflector.getAllProperties();
+         this.properties = properties;
+      }
+      return properties;
+   }
+
+   /**
+    * @param obj
+    *    an instance of this class
+    * @param property
+    *    the property name
+    * @param reflector
+    *    the reflector for this class, used if the property has no usable getter
+    *
+    * @return the value of the property, like {@link Reflector#getValue(Object, String)}
+    */
+   Object getValue(Object obj, String property, Reflector reflector)
+   {
+      final MethodHandle getter = this.getProperty(property).getter;
+      if (getter != null)
+      {
+         try
+         {
+            return (Object) getter.invokeExact(obj);
+         }
+         catch (Throwable ignored)
+         {
+            // let the reflector handle the failure the way it always did
+         }
+      }
+      return reflector.getValue(obj, property);
+   }
+
+   /**
+    * @param property
+    *    the property name
+    *
+    * @return the return type of the getter of the property, or {@code null} if there is none
+    */
+   Class<?> getType(String property)
+   {
+      return this.getProperty(property).type;
+   }
+
+   private Property getProperty(String property)
+   {
+      return this.propertyMap.computeIfAbsent(property, this::findProperty);
+   }
+
+   private Property findProperty(String property)
+   {
+      final Method method;
+      try
+      {
+         method = this.type.getMethod("get" + StrUtil.cap(property));
+      }
+      catch (Exception e)
+      {
+         return new Property(null, null);
+      }
+
+      MethodHandle getter = null;
+      if (!Modifier.isStatic(method.getModifiers()))
+      {
+         try
+         {
+            getter = MethodHandles.publicLookup().unreflect(method).asType(GETTER_TYPE);
+         }
+         catch (IllegalAccessException ignored)
+         {
+            // e.g. a public method of a non-public class
+         }
+      }
+      return new Property(getter, method.getReturnType());
+   }
+
+   // =============== Classes ===============
+
+   private static final class Property
+   {
+      final MethodHandle getter;
+      final Class<?> type;
+
+      Property(MethodHandle getter, Class<?> type)
+      {
+         this.getter = getter;
+         this.type = type;
+      }
+   }
+}
@@ -1,20 +1,27 @@
 package org.fulib.tools;
 
+import org.fulib.tools.fragments.ChangeDetector;
+import org.fulib.tools.fragments.FileType;
+import org.fulib.tools.fragments.XxHash64ChangeDetector;
 import org.fulib.tools.pipe.*;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.zip.Checksum;
 
 /**
  * Provides a data structure for mapping keys to code fragments,
@@ -120,6 +127,13 @@ import java.util.regex.Pattern;
  * <p>
  * How the argument is interpreted depends on the pipe.
  * In this example, we used the {@link CodeFencePipe}, which uses the argument as the language tag.
+ * <p>
+ * Several pipes can be chained, in which case they are applied from left to right:
+ * <pre><code>
+ *    &lt;!-- insert_code_fragment: my.fragment.id | html | indent --&gt;
+ *    &lt;!-- end_code_fragment: --&gt;
+ * </code></pre>
+ * <p>
  * The following pipes are predefined:
  *
  * <table>
@@ -152,20 +166,72 @@ import java.util.regex.Pattern;
  * Then, register them with the CodeFragments instance using the {@link #addPipe(String, Pipe)} method.
  * {@link Pipe} is a {@linkplain FunctionalInterface functional interface}, which allows you to implement it with a
  * lambda expression, e.g. {@code addPipe("foo", (content, arg) -> content + "foo" + arg);}.
+ * Pipes that are applied to large fragments should implement {@link StreamingPipe},
+ * so that chained pipes write directly into each other's input instead of creating intermediate strings.
  * With the {@link #removePipe(String)} method, you can disable predefined or custom pipes.
+ * <p>
+ * When a fragment is inserted in several places with the same pipes, the pipes are only applied once,
+ * and the result is reused for the other insertion points.
+ * Thus, pipes should always return the same output for the same input.
+ * The cache is cleared when a pipe is added or removed.
+ * {@link #getRenderCacheHits()} and {@link #getRenderCacheMisses()} show how often it was used.
+ * <p>
+ * Which files are processed and which comment syntax they use for markers is determined by
+ * {@linkplain #addFileType(String, FileType) file types}.
+ * For example, fragments can be defined in shell scripts like this:
+ * <pre><code>
+ *    fragments.addFileType("sh", new FileType("*.sh", "#", "#"));
+ * </code></pre>
+ * To skip files and directories that never contain fragments, e.g. build output,
+ * configure {@linkplain #setIncludes(String...) include} and {@linkplain #setExcludes(String...) exclude} globs.
+ * <p>
+ * Large directory trees can be processed concurrently by {@linkplain #setParallelism(int) setting the parallelism}
+ * to a value greater than {@code 1}.
+ * Fragments are still registered in the order in which the files are visited,
+ * so warnings about duplicate fragments and the content that is used in such cases are the same as in sequential mode.
+ * <p>
+ * When an {@linkplain #setIndexFile(String) index file} is configured, the fragments defined in each file and the
+ * fragments inserted into each file are remembered across runs.
+ * Files whose size and modification time did not change are not read again,
+ * and files are only rewritten if one of the fragments they insert has changed.
+ * Note that the index does not track the implementation of {@linkplain Pipe pipes};
+ * delete the index file after changing a pipe to force all files to be updated.
+ * The checksums stored in the index are computed by a {@linkplain #setChangeDetector(ChangeDetector) change detector}.
+ * <p>
+ * Every {@link #write(String...)} remembers which files insert which fragments.
+ * If only a few fragments change afterwards, e.g. via {@link #addFragment(String, String)},
+ * {@link #writeChanged()} updates only the files that insert them.
+ * <p>
+ * Repositories with many fragments that are never inserted can enable {@linkplain #setLazy(boolean) lazy mode},
+ * which only stores the fragments that are actually inserted somewhere.
+ * <p>
+ * While editing documentation, {@link #watch(String...)} keeps all files up to date in the background,
+ * only processing the files that changed.
+ * <p>
+ * After each run, {@link #getReport()} tells how many files were scanned and rewritten, how long each phase took,
+ * and which warnings were printed. {@link CodeFragmentsReport#toJson()} exports it for build tooling.
  */
 public class CodeFragments
 {
    // =============== Constants ===============
 
-   private static final Pattern START_PATTERN = Pattern.compile("^(\\s*)// start_code_fragment: ([\\w.]+)\\s*$");
-   private static final Pattern END_PATTERN = Pattern.compile("^\\s*// end_code_fragment:.*$");
+   /**
+    * A token that is contained in every fragment or insertion marker, regardless of the file type.
+    * Lines and files without it are skipped without decoding them or running any regex.
+    */
+   private static final byte[] MARKER_BYTES = "_code_fragment:".getBytes(StandardCharsets.US_ASCII);
+
+   /**
+    * The maximum size of a file whose content is kept in memory by {@link #update(String...)} between reading
+    * fragments and inserting them.
+    * Larger files are read again.
+    */
+   private static final int MAX_RETAINED_SIZE = 1024 * 1024;
 
-   private static final Pattern INSERT_START_PATTERN = Pattern.compile(
-      "^([\\s*>]*)<!-- insert_code_fragment: ([\\w.]+)\\s*(?:\\|\\s*(\\w\\S*)\\s*)?-->\\s*$");
-   private static final Pattern INSERT_END_PATTERN = Pattern.compile("^[\\s*>]*<!-- end_code_fragment:.*$");
+   private static final byte[] LINE_SEPARATOR_BYTES = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
 
    private static final Map<String, Pipe> DEFAULT_PIPES;
+   private static final Map<String, FileType> DEFAULT_FILE_TYPES;
 
    static
    {
@@ -175,17 +241,294 @@ public class CodeFragments
       defaultPipes.put(CodeFencePipe.NAME, new CodeFencePipe());
       defaultPipes.put(HtmlPipe.NAME, new HtmlPipe());
       DEFAULT_PIPES = Collections.unmodifiableMap(defaultPipes);
+
+      // in order of precedence
+      final Map<String, FileType> defaultFileTypes = new LinkedHashMap<>();
+      defaultFileTypes.put("java", FileType.JAVA);
+      defaultFileTypes.put("md", FileType.MARKDOWN);
+      defaultFileTypes.put("gradle", FileType.GRADLE);
+      DEFAULT_FILE_TYPES = Collections.unmodifiableMap(defaultFileTypes);
    }
 
    // =============== Fields ===============
 
-   private final LinkedHashMap<String, String> fragmentMap = new LinkedHashMap<>();
+   private final FragmentStore fragmentStore = new FragmentStore();
+   private final FragmentMap fragmentMap = new FragmentMap();
    private final Map<String, Pipe> pipes = new HashMap<>(DEFAULT_PIPES);
+   private final RenderCache renderCache = new RenderCache();
+   private final Map<String, MarkerSyntax> fileTypes = new LinkedHashMap<>();
+
+   private List<String> includes = Collections.emptyList();
+   private List<String> excludes = Collections.emptyList();
+   private PathFilter pathFilter;
+
+   private int parallelism = 1;
+
+   private String indexFile;
+   private FragmentIndex index;
+   private ChangeDetector changeDetector = new XxHash64ChangeDetector();
+
+   private final Map<Path, List<FragmentInsertion>> insertions = new HashMap<>();
+   private final Map<String, Set<Path>> insertingFiles = new HashMap<>();
+   private final Set<String> changedKeys = new LinkedHashSet<>();
+
+   private CodeFragmentsReport report = new CodeFragmentsReport();
+
+   private long watchDebounce = 50;
+
+   private boolean lazy;
+
+   // =============== Constructors ===============
+
+   public CodeFragments()
+   {
+      for (Map.Entry<String, FileType> entry : DEFAULT_FILE_TYPES.entrySet())
+      {
+         this.addFileType(entry.getKey(), entry.getValue());
+      }
+   }
 
    // =============== Properties ===============
 
    /**
-    * @return the internal, modifiable fragment map
+    * @return the number of threads used to process files
+    *
+    * @since 1.7
+    */
+   public int getParallelism()
+   {
+      return this.parallelism;
+   }
+
+   /**
+    * @param parallelism
+    *    the number of threads used to process files
+    *
+    * @throws IllegalArgumentException
+    *    if {@code parallelism} is less than {@code 1}
+    * @since 1.7
+    */
+   public void setParallelism(int parallelism)
+   {
+      if (parallelism < 1)
+      {
+         throw new IllegalArgumentException("parallelism must be at least 1, but was " + parallelism);
+      }
+      this.parallelism = parallelism;
+   }
+
+   /**
+    * Sets the number of threads used to read and write files.
+    * Default is {@code 1}, i.e. all files are processed sequentially on the calling thread.
+    * <p>
+    * Note that if a file contains an unterminated fragment, files after it may already have been updated when the
+    * exception is thrown, which is not the case in sequential mode.
+    *
+    * @param parallelism
+    *    the number of threads used to process files
+    *
+    * @return this instance, to allow method chaining
+    *
+    * @throws IllegalArgumentException
+    *    if {@code parallelism} is less than {@code 1}
+    * @since 1.7
+    */
+   public CodeFragments withParallelism(int parallelism)
+   {
+      this.setParallelism(parallelism);
+      return this;
+   }
+
+   /**
+    * @return the path of the file in which the fragment index is stored, or {@code null} if no index is used
+    *
+    * @since 1.7
+    */
+   public String getIndexFile()
+   {
+      return this.indexFile;
+   }
+
+   /**
+    * @param indexFile
+    *    the path of the file in which the fragment index is stored, or {@code null} to disable the index
+    *
+    * @since 1.7
+    */
+   public void setIndexFile(String indexFile)
+   {
+      if (Objects.equals(this.indexFile, indexFile))
+      {
+         return;
+      }
+      this.indexFile = indexFile;
+      this.index = null;
+   }
+
+   /**
+    * Sets the path of the file in which the fragment index is stored, e.g. {@code build/codeFragments.index}.
+    * The file is created if it does not exist.
+    * Default is {@code null}, i.e. no index is used and all files are read on every run.
+    *
+    * @param indexFile
+    *    the path of the file in which the fragment index is stored, or {@code null} to disable the index
+    *
+    * @return this instance, to allow method chaining
+    *
+    * @since 1.7
+    */
+   public CodeFragments withIndexFile(String indexFile)
+   {
+      this.setIndexFile(indexFile);
+      return this;
+   }
+
+   /**
+    * @return the time in milliseconds that {@link #watch(String...)} waits for further changes before processing them
+    *
+    * @since 1.7
+    */
+   public long getWatchDebounce()
+   {
+      return this.watchDebounce;
+   }
+
+   /**
+    * @param watchDebounce
+    *    the time in milliseconds that {@link #watch(String...)} waits for further changes before processing them
+    *
+    * @throws IllegalArgumentException
+    *    if {@code watchDebounce} is negative
+    * @since 1.7
+    */
+   public void setWatchDebounce(long watchDebounce)
+   {
+      if (watchDebounce < 0)
+      {
+         throw new IllegalArgumentException("watchDebounce must not be negative, but was " + watchDebounce);
+      }
+      this.watchDebounce = watchDebounce;
+   }
+
+   /**
+    * Sets the time in milliseconds that {@link #watch(String...)} waits for further changes before processing them.
+    * Default is {@code 50}.
+    * Editors often save a file in several steps, and tools may change many files at once;
+    * all of them are processed together after the time has passed without further changes.
+    *
+    * @param watchDebounce
+    *    the time in milliseconds that {@link #watch(String...)} waits for further changes before processing them
+    *
+    * @return this instance, to allow method chaining
+    *
+    * @throws IllegalArgumentException
+    *    if {@code watchDebounce} is negative
+    * @since 1.7
+    */
+   public CodeFragments withWatchDebounce(long watchDebounce)
+   {
+      this.setWatchDebounce(watchDebounce);
+      return this;
+   }
+
+   /**
+    * @return the change detector that computes the checksums stored in the index
+    *
+    * @since 1.7
+    */
+   public ChangeDetector getChangeDetector()
+   {
+      return this.changeDetector;
+   }
+
+   /**
+    * @param changeDetector
+    *    the change detector that computes the checksums stored in the index
+    *
+    * @since 1.7
+    */
+   public void setChangeDetector(ChangeDetector changeDetector)
+   {
+      Objects.requireNonNull(changeDetector, "changeDetector");
+      if (this.changeDetector == changeDetector)
+      {
+         return;
+      }
+      this.changeDetector = changeDetector;
+      this.index = null;
+   }
+
+   /**
+    * Sets the change detector that computes the checksums stored in the {@linkplain #setIndexFile(String) index}.
+    * Default is an {@link XxHash64ChangeDetector}.
+    * An index that was written with a different change detector is discarded.
+    *
+    * @param changeDetector
+    *    the change detector that computes the checksums stored in the index
+    *
+    * @return this instance, to allow method chaining
+    *
+    * @since 1.7
+    */
+   public CodeFragments withChangeDetector(ChangeDetector changeDetector)
+   {
+      this.setChangeDetector(changeDetector);
+      return this;
+   }
+
+   /**
+    * @return whether only fragments that are inserted somewhere are loaded
+    *
+    * @since 1.7
+    */
+   public boolean isLazy()
+   {
+      return this.lazy;
+   }
+
+   /**
+    * @param lazy
+    *    whether only fragments that are inserted somewhere are loaded
+    *
+    * @since 1.7
+    */
+   public void setLazy(boolean lazy)
+   {
+      this.lazy = lazy;
+   }
+
+   /**
+    * Sets whether only fragments that are inserted somewhere are loaded.
+    * Default is {@code false}.
+    * <p>
+    * In lazy mode, {@link #load(String...)} and {@link #update(String...)} first scan the files for the keys of
+    * inserted fragments, skipping the content of all fragment definitions.
+    * Then only the content of the fragments with those keys is read and stored.
+    * A fragment counts as inserted if a file within the given folders inserts it,
+    * or if a previous {@link #write(String...)} recorded a file that inserts it.
+    * Thus, {@link #load(String...)} should be given the folders that insert the fragments as well.
+    * <p>
+    * Other fragments are not available via {@link #getFragment(String)},
+    * and duplicate definitions are only reported for fragments that are loaded.
+    * {@link #watch(String...)} always loads all fragments, since edits may insert any of them.
+    *
+    * @param lazy
+    *    whether only fragments that are inserted somewhere are loaded
+    *
+    * @return this instance, to allow method chaining
+    *
+    * @since 1.7
+    */
+   public CodeFragments withLazy(boolean lazy)
+   {
+      this.setLazy(lazy);
+      return this;
+   }
+
+   /**
+    * @return the internal, modifiable fragment map.
+    * Changes to it are treated like {@link #addFragment(String, String)}.
+    * Its views, like {@link Map#entrySet()}, cannot be modified.
     *
     * @deprecated since 1.2; use {@link #getFragments()} instead
     */
@@ -202,7 +545,7 @@ public class CodeFragments
     */
    public Map<String, String> getFragments()
    {
-      return Collections.unmodifiableMap(this.fragmentMap);
+      return this.fragmentStore.asMap();
    }
 
    /**
@@ -215,7 +558,8 @@ public class CodeFragments
     */
    public String getFragment(String key)
    {
-      return this.fragmentMap.get(key);
+      final FragmentStore.Content content = this.fragmentStore.get(key);
+      return content != null ? content.toString() : null;
    }
 
    /**
@@ -265,7 +609,7 @@ public class CodeFragments
     */
    public void addFragment(String key, String content)
    {
-      this.fragmentMap.put(key, content);
+      this.putFragment(key, content);
    }
 
    /**
@@ -294,6 +638,7 @@ public class CodeFragments
    public void addPipe(String name, Pipe pipe)
    {
       this.pipes.put(name, pipe);
+      this.renderCache.clear();
    }
 
    /**
@@ -307,6 +652,183 @@ public class CodeFragments
    public void removePipe(String name)
    {
       this.pipes.remove(name);
+      this.renderCache.clear();
+   }
+
+   /**
+    * @param name
+    *    the name of the file type
+    *
+    * @return the file type with the given name, or {@code null} if none is found
+    *
+    * @since 1.7
+    */
+   public FileType getFileType(String name)
+   {
+      final MarkerSyntax syntax = this.fileTypes.get(name);
+      return syntax != null ? syntax.fileType : null;
+   }
+
+   /**
+    * Adds or replaces a file type with the given name.
+    * A file is processed according to the first file type whose glob matches its name,
+    * in the order in which they were added.
+    * File types replaced by this method keep their position.
+    *
+    * @param name
+    *    the name of the file type
+    * @param fileType
+    *    the file type
+    *
+    * @since 1.7
+    */
+   public void addFileType(String name, FileType fileType)
+   {
+      this.fileTypes.put(name, new MarkerSyntax(fileType));
+   }
+
+   /**
+    * Removes the file type with the given name if one exists, otherwise does nothing.
+    *
+    * @param name
+    *    the name of the file type to remove
+    *
+    * @since 1.7
+    */
+   public void removeFileType(String name)
+   {
+      this.fileTypes.remove(name);
+   }
+
+   /**
+    * @return an unmodifiable list of globs, one of which files must match to be processed
+    *
+    * @since 1.7
+    */
+   public List<String> getIncludes()
+   {
+      return this.includes;
+   }
+
+   /**
+    * @param includes
+    *    the globs, one of which files must match to be processed, or none to process all files
+    *
+    * @since 1.7
+    */
+   public void setIncludes(String... includes)
+   {
+      this.includes = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(includes)));
+      this.pathFilter = null;
+   }
+
+   /**
+    * Sets the globs, one of which files must match to be processed.
+    * A glob that contains a slash ({@code /}) is matched against the path relative to the folder passed to
+    * {@link #load(String...)}, {@link #write(String...)} or {@link #update(String...)}.
+    * Other globs are matched against the file name.
+    * Default is no globs, i.e. all files are processed if they match a {@linkplain #addFileType(String, FileType)
+    * file type}.
+    * <p>
+    * Example:
+    * <pre><code>
+    *    FulibTools.codeFragments().withIncludes("docs/**", "*.java").update(".");
+    * </code></pre>
+    *
+    * @param includes
+    *    the globs, one of which files must match to be processed, or none to process all files
+    *
+    * @return this instance, to allow method chaining
+    *
+    * @see java.nio.file.FileSystem#getPathMatcher(String)
+    * @since 1.7
+    */
+   public CodeFragments withIncludes(String... includes)
+   {
+      this.setIncludes(includes);
+      return this;
+   }
+
+   /**
+    * @return an unmodifiable list of globs for files and directories that are skipped
+    *
+    * @since 1.7
+    */
+   public List<String> getExcludes()
+   {
+      return this.excludes;
+   }
+
+   /**
+    * @param excludes
+    *    the globs for files and directories that are skipped
+    *
+    * @since 1.7
+    */
+   public void setExcludes(String... excludes)
+   {
+      this.excludes = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(excludes)));
+      this.pathFilter = null;
+   }
+
+   /**
+    * Sets the globs for files and directories that are skipped.
+    * Excluded directories are not entered at all, which makes walking large trees much faster.
+    * Globs are matched in the same way as {@linkplain #setIncludes(String...) includes}.
+    * The folders passed to {@link #load(String...)}, {@link #write(String...)} or {@link #update(String...)} are
+    * never skipped.
+    * <p>
+    * Example:
+    * <pre><code>
+    *    FulibTools.codeFragments().withExcludes(".git", "build", "node_modules").update(".");
+    * </code></pre>
+    *
+    * @param excludes
+    *    the globs for files and directories that are skipped
+    *
+    * @return this instance, to allow method chaining
+    *
+    * @see java.nio.file.FileSystem#getPathMatcher(String)
+    * @since 1.7
+    */
+   public CodeFragments withExcludes(String... excludes)
+   {
+      this.setExcludes(excludes);
+      return this;
+   }
+
+   /**
+    * @return the number of insertions whose content was taken from the render cache
+    *
+    * @see #getRenderCacheMisses()
+    * @since 1.7
+    */
+   public long getRenderCacheHits()
+   {
+      return this.renderCache.getHits();
+   }
+
+   /**
+    * @return the number of insertions for which the pipes had to be applied to the fragment content
+    *
+    * @see #getRenderCacheHits()
+    * @since 1.7
+    */
+   public long getRenderCacheMisses()
+   {
+      return this.renderCache.getMisses();
+   }
+
+   /**
+    * @return the statistics and warnings of the last {@link #load(String...)}, {@link #write(String...)},
+    * {@link #writeChanged()} or {@link #update(String...)} run,
+    * or of the last batch of changes while {@linkplain #watch(String...) watching}
+    *
+    * @since 1.7
+    */
+   public CodeFragmentsReport getReport()
+   {
+      return this.report;
    }
 
    // =============== Methods ===============
@@ -322,16 +844,33 @@ public class CodeFragments
     */
    public void load(String... folders)
    {
+      this.report = new CodeFragmentsReport();
       try
       {
-         for (String folder : folders)
+         this.openIndex();
+         final long start = System.nanoTime();
+         if (this.lazy)
+         {
+            final List<FileFragments> files = new ArrayList<>();
+            this.processFiles(FileSystems.getDefault(), folders, file -> this.fetchFromFile(file, false, true),
+                              files::add);
+            this.addReferencedFragments(files);
+         }
+         else
          {
-            this.walkFiles(Paths.get(folder), this::fetchFromFile);
+            this.processFiles(FileSystems.getDefault(), folders, file -> this.fetchFromFile(file, false),
+                              this::addFragments);
          }
+         this.report.addPhaseNanos(CodeFragmentsReport.PHASE_LOAD, System.nanoTime() - start);
+         this.saveIndex();
       }
       catch (IOException e)
       {
-         Logger.getGlobal().log(Level.WARNING, "file walk problem", e);
+         this.logProblem(null, "file walk problem", e);
+      }
+      finally
+      {
+         this.report.finish();
       }
    }
 
@@ -346,31 +885,361 @@ public class CodeFragments
     */
    public void write(String... folders)
    {
+      this.report = new CodeFragmentsReport();
       try
       {
-         for (String folder : folders)
-         {
-            this.walkFiles(Paths.get(folder), this::insertFragments);
-         }
+         this.openIndex();
+         final long start = System.nanoTime();
+         this.processFiles(FileSystems.getDefault(), folders, file -> this.insertFragments(file, null),
+                           this::addInsertions);
+         this.report.addPhaseNanos(CodeFragmentsReport.PHASE_WRITE, System.nanoTime() - start);
+         this.saveIndex();
+         this.changedKeys.clear();
       }
       catch (IOException e)
       {
-         Logger.getGlobal().log(Level.WARNING, "file walk problem", e);
+         this.logProblem(null, "file walk problem", e);
+      }
+      finally
+      {
+         this.report.finish();
       }
    }
 
    /**
-    * Runs {@link #load(String...)} and {@link #write(String...)} in succession.
-    *
-    * @param folders
-    *    the folders to search for fragments and fragment insertion points
+    * Inserts the fragments that changed since the last {@link #write(String...)} or {@link #update(String...)}
+    * into the files that insert them, as recorded by previous writes.
+    * Other files are not read.
+    * Fragments change when they are {@linkplain #load(String...) loaded} or
+    * {@linkplain #addFragment(String, String) added} with a different content than before.
+    * <p>
+    * Example:
+    * <pre><code>
+    *    final CodeFragments fragments = FulibTools.codeFragments();
+    *    fragments.update(".");
+    *    fragments.addFragment("exampleOutput", output);
+    *    fragments.writeChanged(); // only touches files that insert exampleOutput
+    * </code></pre>
     *
-    * @since 1.2
+    * @since 1.7
     */
-   public void update(String... folders)
+   public void writeChanged()
    {
-      this.load(folders);
-      this.write(folders);
+      final Set<Path> files = new LinkedHashSet<>();
+      for (String key : this.changedKeys)
+      {
+         final Set<Path> keyFiles = this.insertingFiles.get(key);
+         if (keyFiles != null)
+         {
+            files.addAll(keyFiles);
+         }
+      }
+
+      this.report = new CodeFragmentsReport();
+      this.report.filesScanned(files.size());
+      try
+      {
+         this.openIndex();
+         final long start = System.nanoTime();
+         this.processFiles(new ArrayList<>(files), file -> this.insertFragments(file, null), this::addInsertions);
+         this.report.addPhaseNanos(CodeFragmentsReport.PHASE_WRITE, System.nanoTime() - start);
+         this.saveIndex();
+         this.changedKeys.clear();
+      }
+      catch (IOException e)
+      {
+         this.logProblem(null, "file write problem", e);
+      }
+      finally
+      {
+         this.report.finish();
+      }
+   }
+
+   /**
+    * Has the same effect as running {@link #load(String...)} and {@link #write(String...)} in succession,
+    * but walks the folders and reads each file only once.
+    * All fragments are loaded before any of them are inserted,
+    * so fragments can be inserted into files that are visited before the file that defines them.
+    *
+    * @param folders
+    *    the folders to search for fragments and fragment insertion points
+    *
+    * @since 1.2
+    */
+   public void update(String... folders)
+   {
+      this.update(FileSystems.getDefault(), folders);
+   }
+
+   /**
+    * Same as {@link #update(String...)}, but for folders in the given file system,
+    * e.g. a zip file system or an in-memory file system.
+    * The {@linkplain #setIndexFile(String) index} only applies to files in the default file system.
+    *
+    * @param fileSystem
+    *    the file system that contains the folders
+    * @param folders
+    *    the folders to search for fragments and fragment insertion points
+    *
+    * @since 1.7
+    */
+   public void update(FileSystem fileSystem, String... folders)
+   {
+      this.update(fileSystem, folders, this.lazy);
+   }
+
+   /**
+    * @param lazy
+    *    whether to only load inserted fragments, see {@link #setLazy(boolean)}
+    */
+   void update(FileSystem fileSystem, String[] folders, boolean lazy)
+   {
+      this.report = new CodeFragmentsReport();
+      try
+      {
+         this.openIndex();
+         long start = System.nanoTime();
+         final List<FileFragments> files = new ArrayList<>();
+         if (lazy)
+         {
+            this.processFiles(fileSystem, folders, file -> this.fetchFromFile(file, true, true), files::add);
+            this.addReferencedFragments(files);
+         }
+         else
+         {
+            this.processFiles(fileSystem, folders, file -> this.fetchFromFile(file, true), fileFragments -> {
+               this.addFragments(fileFragments);
+               files.add(fileFragments);
+            });
+         }
+         this.report.addPhaseNanos(CodeFragmentsReport.PHASE_LOAD, System.nanoTime() - start);
+
+         start = System.nanoTime();
+         this.processFiles(files, this::insertFragments, this::addInsertions);
+         this.report.addPhaseNanos(CodeFragmentsReport.PHASE_WRITE, System.nanoTime() - start);
+         this.saveIndex();
+         this.changedKeys.clear();
+      }
+      catch (IOException e)
+      {
+         this.logProblem(null, "file walk problem", e);
+      }
+      finally
+      {
+         this.report.finish();
+      }
+   }
+
+   /**
+    * Same as {@link #update(String...)}, but for files that are held in memory, e.g. by a static site generator.
+    * Nothing is read from or written to disk.
+    * <p>
+    * The file names are used to find the {@linkplain #addFileType(String, FileType) file type} of each file
+    * and to match the {@linkplain #setIncludes(String...) include} and {@linkplain #setExcludes(String...) exclude}
+    * globs, so they should be relative paths with {@code /} as the separator.
+    * <p>
+    * Example:
+    * <pre><code>
+    *    final Map&lt;String, String&gt; pages = FulibTools.codeFragments().update(sources);
+    * </code></pre>
+    *
+    * @param files
+    *    a map from file names to the content of the files
+    *
+    * @return a map from the same file names, in the same order, to the content of the files after inserting fragments.
+    * Files that were not processed or did not change are mapped to their original content.
+    *
+    * @since 1.7
+    */
+   public Map<String, String> update(Map<String, ? extends CharSequence> files)
+   {
+      this.report = new CodeFragmentsReport();
+      final Map<String, String> result = new LinkedHashMap<>();
+      for (Map.Entry<String, ? extends CharSequence> file : files.entrySet())
+      {
+         result.put(file.getKey(), file.getValue().toString());
+      }
+
+      try
+      {
+         long start = System.nanoTime();
+         final List<FileFragments> fileFragments = new ArrayList<>();
+         this.processFiles(new ArrayList<>(result.entrySet()), this::fetchFromMemory, loaded -> {
+            if (loaded == null)
+            {
+               return;
+            }
+            if (!this.lazy)
+            {
+               this.addFragments(loaded);
+            }
+            fileFragments.add(loaded);
+         });
+         if (this.lazy)
+         {
+            this.addReferencedFragments(fileFragments);
+         }
+         this.report.addPhaseNanos(CodeFragmentsReport.PHASE_LOAD, System.nanoTime() - start);
+
+         start = System.nanoTime();
+         this.processFiles(fileFragments, loaded -> new AbstractMap.SimpleImmutableEntry<>(
+            loaded.fileName, this.insertInMemory(loaded)), inserted -> {
+            if (inserted.getValue() != null)
+            {
+               result.put(inserted.getKey(), inserted.getValue());
+            }
+         });
+         this.report.addPhaseNanos(CodeFragmentsReport.PHASE_WRITE, System.nanoTime() - start);
+      }
+      catch (IOException e)
+      {
+         // cannot happen in memory
+         throw new UncheckedIOException(e);
+      }
+      finally
+      {
+         this.report.finish();
+      }
+      return result;
+   }
+
+   /**
+    * Runs {@link #update(String...)} and then keeps watching the given folders for changes in the background,
+    * until the returned handle is closed.
+    * <p>
+    * When files are created or modified, only they are read again.
+    * Their fragments are updated, fragments are inserted into them,
+    * and changed fragments are inserted into the files that insert them, as recorded by previous writes.
+    * Changes made by this process itself are ignored.
+    * <p>
+    * Fragments whose definitions were removed stay available until the next {@link #update(String...)} with a new
+    * instance.
+    * Warnings about duplicate fragments are only reported by the initial update.
+    * <p>
+    * Changes are processed on a background thread while holding the lock of this instance.
+    * Other threads that use this instance while watching must synchronize on it.
+    * <p>
+    * Example:
+    * <pre><code>
+    *    try (Closeable watch = FulibTools.codeFragments().watch("README.md", "docs/", "src/"))
+    *    {
+    *       System.in.read(); // until enter is pressed
+    *    }
+    * </code></pre>
+    *
+    * @param folders
+    *    the folders to search for fragments and fragment insertion points
+    *
+    * @return a handle that stops watching when closed
+    *
+    * @throws IOException
+    *    if the folders cannot be watched
+    * @see #setWatchDebounce(long)
+    * @since 1.7
+    */
+   public Closeable watch(String... folders) throws IOException
+   {
+      // start watching before the update, so no change is missed
+      final FragmentWatcher watcher = new FragmentWatcher(this, folders, this.watchDebounce);
+      synchronized (this)
+      {
+         // edits may insert any fragment, so all of them are loaded
+         this.update(FileSystems.getDefault(), folders, false);
+      }
+      watcher.start();
+      return watcher;
+   }
+
+   /**
+    * Processes files that were created, modified or deleted while {@linkplain #watch(String...) watching}.
+    *
+    * @param changedFiles
+    *    the files that were created or modified
+    * @param deletedFiles
+    *    the files and directories that were deleted
+    *
+    * @return the files that were rewritten
+    */
+   List<Path> refresh(Collection<Path> changedFiles, Collection<Path> deletedFiles)
+   {
+      for (Path deleted : deletedFiles)
+      {
+         final Path normalized = deleted.toAbsolutePath().normalize();
+         for (Path file : new ArrayList<>(this.insertions.keySet()))
+         {
+            if (file.startsWith(normalized))
+            {
+               this.addInsertions(new FileInsertions(file, new ArrayList<>()));
+            }
+         }
+      }
+
+      final List<Path> written = new ArrayList<>();
+      this.report = new CodeFragmentsReport();
+      this.report.filesScanned(changedFiles.size());
+      try
+      {
+         this.openIndex();
+
+         long start = System.nanoTime();
+         final List<FileFragments> files = new ArrayList<>();
+         this.processFiles(new ArrayList<>(changedFiles), file -> this.fetchFromFile(file, true), fileFragments -> {
+            this.report.fragmentsDefined(fileFragments.fragments.size());
+            for (Map.Entry<String, String> fragment : fileFragments.fragments)
+            {
+               this.putFragment(fragment.getKey(), fragment.getValue());
+            }
+            if (fileFragments.error != null)
+            {
+               this.warn(System.err, fileFragments.fileName, 0, fileFragments.error.getMessage());
+            }
+            else
+            {
+               files.add(fileFragments);
+            }
+         });
+
+         // the changed files themselves, then the files that insert changed fragments
+         final Set<Path> seen = new HashSet<>();
+         for (FileFragments fileFragments : files)
+         {
+            seen.add(fileFragments.file.toAbsolutePath().normalize());
+         }
+         for (String key : this.changedKeys)
+         {
+            for (Path file : this.insertingFiles.getOrDefault(key, Collections.emptySet()))
+            {
+               if (seen.add(file))
+               {
+                  files.add(new FileFragments(file, this.getSyntax(file)));
+                  this.report.fileScanned();
+               }
+            }
+         }
+         this.changedKeys.clear();
+         this.report.addPhaseNanos(CodeFragmentsReport.PHASE_LOAD, System.nanoTime() - start);
+
+         start = System.nanoTime();
+         this.processFiles(files, this::insertFragments, fileInsertions -> {
+            this.addInsertions(fileInsertions);
+            if (fileInsertions.written)
+            {
+               written.add(fileInsertions.file);
+            }
+         });
+         this.report.addPhaseNanos(CodeFragmentsReport.PHASE_WRITE, System.nanoTime() - start);
+         this.saveIndex();
+      }
+      catch (IOException e)
+      {
+         this.logProblem(null, "file update problem", e);
+      }
+      finally
+      {
+         this.report.finish();
+      }
+      return written;
    }
 
    /**
@@ -390,158 +1259,897 @@ public class CodeFragments
       return this.getFragments();
    }
 
-   // --------------- Helpers ---------------
-
-   private void walkFiles(Path path, Consumer<? super Path> consumer) throws IOException
+   // --------------- Helpers ---------------
+
+   private void openIndex()
+   {
+      if (this.indexFile != null && this.index == null)
+      {
+         final long start = System.nanoTime();
+         this.index = FragmentIndex.read(Paths.get(this.indexFile), this.changeDetector);
+         this.report.addPhaseNanos(CodeFragmentsReport.PHASE_INDEX, System.nanoTime() - start);
+      }
+      if (this.index != null)
+      {
+         this.index.startRun();
+      }
+   }
+
+   private void saveIndex()
+   {
+      if (this.index != null)
+      {
+         final long start = System.nanoTime();
+         this.index.save();
+         this.report.addPhaseNanos(CodeFragmentsReport.PHASE_INDEX, System.nanoTime() - start);
+      }
+   }
+
+   /**
+    * @return the index if the file is covered by it, otherwise {@code null}
+    */
+   private FragmentIndex getIndex(Path file)
+   {
+      // the index identifies files by their path, which is only unique within the default file system
+      return file.getFileSystem() == FileSystems.getDefault() ? this.index : null;
+   }
+
+   private void warn(PrintStream out, String fileName, int lineNum, String message)
+   {
+      final CodeFragmentsReport.Warning warning = this.report.addWarning(fileName, lineNum, message);
+      out.println(warning);
+   }
+
+   private void logProblem(Path file, String message, IOException e)
+   {
+      Logger.getGlobal().log(Level.WARNING, message, e);
+      this.report.addWarning(file != null ? file.toString() : null, 0, message + ": " + e);
+   }
+
+   private static BasicFileAttributes readAttributes(Path file)
+   {
+      try
+      {
+         return Files.readAttributes(file, BasicFileAttributes.class);
+      }
+      catch (IOException e)
+      {
+         return null;
+      }
+   }
+
+   private <T> void processFiles(FileSystem fileSystem, String[] folders, Function<? super Path, ? extends T> action,
+      Consumer<? super T> resultConsumer) throws IOException
+   {
+      if (this.parallelism <= 1)
+      {
+         for (String folder : folders)
+         {
+            this.walkFiles(fileSystem.getPath(folder), file -> resultConsumer.accept(action.apply(file)));
+         }
+         return;
+      }
+
+      final List<Path> files = new ArrayList<>();
+      for (String folder : folders)
+      {
+         this.walkFiles(fileSystem.getPath(folder), files::add);
+      }
+      this.processFiles(files, action, resultConsumer);
+   }
+
+   private <F, T> void processFiles(List<F> files, Function<? super F, ? extends T> action,
+      Consumer<? super T> resultConsumer) throws IOException
+   {
+      if (this.parallelism <= 1 || files.size() <= 1)
+      {
+         for (F file : files)
+         {
+            resultConsumer.accept(action.apply(file));
+         }
+         return;
+      }
+
+      final ExecutorService executor = Executors.newFixedThreadPool(this.parallelism);
+      final List<Future<? extends T>> futures = new ArrayList<>(files.size());
+      try
+      {
+         for (F file : files)
+         {
+            futures.add(executor.submit(() -> action.apply(file)));
+         }
+
+         // consume the results in walk order, so the outcome does not depend on thread scheduling
+         for (Future<? extends T> future : futures)
+         {
+            resultConsumer.accept(getResult(future));
+         }
+      }
+      finally
+      {
+         // if a file failed, don't start processing any more files, but let running tasks finish normally
+         for (Future<? extends T> future : futures)
+         {
+            future.cancel(false);
+         }
+         executor.shutdown();
+      }
+   }
+
+   private static <T> T getResult(Future<T> future) throws IOException
+   {
+      try
+      {
+         return future.get();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("interrupted while processing files");
+      }
+      catch (ExecutionException e)
+      {
+         final Throwable cause = e.getCause();
+         if (cause instanceof RuntimeException)
+         {
+            throw (RuntimeException) cause;
+         }
+         if (cause instanceof Error)
+         {
+            throw (Error) cause;
+         }
+         throw new IOException(cause);
+      }
+   }
+
+   private void walkFiles(Path path, Consumer<? super Path> consumer) throws IOException
+   {
+      if (!Files.exists(path))
+      {
+         return;
+      }
+
+      Files.walkFileTree(path, new SimpleFileVisitor<Path>()
+      {
+         @Override
+         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+         {
+            return skipsDirectory(path, dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+         }
+
+         @Override
+         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+         {
+            if (!matchesFilter(path, file))
+            {
+               return FileVisitResult.CONTINUE;
+            }
+            if (getSyntax(file) == null)
+            {
+               report.fileSkipped();
+               return FileVisitResult.CONTINUE;
+            }
+
+            report.fileScanned();
+            consumer.accept(file);
+            return FileVisitResult.CONTINUE;
+         }
+      });
+   }
+
+   private PathFilter getPathFilter()
+   {
+      if (this.pathFilter == null)
+      {
+         this.pathFilter = new PathFilter(this.includes, this.excludes);
+      }
+      return this.pathFilter;
+   }
+
+   /**
+    * @param root
+    *    the folder that is being walked
+    * @param dir
+    *    a directory within the folder
+    *
+    * @return whether the directory and everything in it should be skipped
+    */
+   boolean skipsDirectory(Path root, Path dir)
+   {
+      return !dir.equals(root) && this.getPathFilter().skipsDirectory(root.relativize(dir));
+   }
+
+   /**
+    * @param root
+    *    the folder that is being walked, or a single file
+    * @param file
+    *    a file within the folder
+    *
+    * @return whether the file should be processed
+    */
+   boolean acceptsFile(Path root, Path file)
+   {
+      return this.matchesFilter(root, file) && this.getSyntax(file) != null;
+   }
+
+   /**
+    * @return whether the file matches the include and exclude globs
+    */
+   private boolean matchesFilter(Path root, Path file)
+   {
+      final Path relativePath;
+      if (file.equals(root))
+      {
+         relativePath = file.getFileName();
+      }
+      else if (file.startsWith(root))
+      {
+         relativePath = root.relativize(file);
+      }
+      else
+      {
+         return false;
+      }
+      return this.getPathFilter().acceptsFile(relativePath);
+   }
+
+   /**
+    * @param file
+    *    the file
+    *
+    * @return the syntax of the first file type that matches the file, or {@code null} if there is none
+    */
+   private MarkerSyntax getSyntax(Path file)
+   {
+      for (MarkerSyntax syntax : this.fileTypes.values())
+      {
+         if (syntax.matches(file))
+         {
+            return syntax;
+         }
+      }
+      return null;
+   }
+
+   private static boolean supportsInsertion(MarkerSyntax syntax)
+   {
+      return syntax != null && syntax.supportsInsertion();
+   }
+
+   private FileFragments fetchFromFile(Path file, boolean retainContent)
+   {
+      return this.fetchFromFile(file, retainContent, false);
+   }
+
+   /**
+    * @param file
+    *    the file to read
+    * @param retainContent
+    *    whether to keep the content of the file in memory if it may contain insertion points
+    * @param lazy
+    *    whether to skip the content of fragments and collect the keys of inserted fragments instead
+    *
+    * @return the fragments defined in the file
+    */
+   private FileFragments fetchFromFile(Path file, boolean retainContent, boolean lazy)
+   {
+      final MarkerSyntax syntax = this.getSyntax(file);
+      final FileFragments result = new FileFragments(file, syntax);
+      final String fileName = result.fileName;
+
+      if (syntax == null)
+      {
+         result.hasMarkers = false;
+         return result;
+      }
+
+      final FragmentIndex index = this.getIndex(file);
+      final BasicFileAttributes attributes = index != null ? readAttributes(file) : null;
+      if (attributes != null)
+      {
+         final FragmentIndex.Entry entry = index.getUnchanged(file, attributes);
+         if (entry != null && entry.fragments != null && (!lazy || entry.inserts != null || !supportsInsertion(syntax)))
+         {
+            // file did not change since the last run
+            result.fragments.addAll(entry.fragments);
+            if (lazy)
+            {
+               result.insertedKeys = entry.inserts != null ? entry.inserts.keySet() : Collections.emptySet();
+            }
+            return result;
+         }
+      }
+
+      if (lazy)
+      {
+         result.insertedKeys = new LinkedHashSet<>();
+      }
+
+      final Checksum inputChecksum = attributes != null ? this.changeDetector.newChecksum() : null;
+      try
+      {
+         final boolean retain = retainContent && supportsInsertion(syntax);
+         try (final ByteLineReader reader = new ByteLineReader(Files.newInputStream(file), inputChecksum))
+         {
+            if (retain)
+            {
+               reader.setRetainLimit(MAX_RETAINED_SIZE);
+            }
+
+            try
+            {
+               // indexed files are loaded completely, so that unchanged files need not be read on later runs
+               final Set<String> keys = lazy && attributes == null ? Collections.emptySet() : null;
+               result.hasMarkers = this.fetchFromFile(fileName, syntax, reader, result, keys);
+            }
+            catch (IllegalArgumentException e)
+            {
+               // fragments before the error are still registered
+               result.error = e;
+               this.report.bytesRead(reader.getBytesRead());
+               return result;
+            }
+
+            if (result.hasMarkers && retain)
+            {
+               result.content = getRetainedContent(file, reader);
+            }
+
+            if (inputChecksum != null)
+            {
+               reader.skipRest();
+               final long hash = inputChecksum.getValue();
+               final FragmentIndex.Entry oldEntry = index.get(file);
+               final FragmentIndex.Entry entry;
+               if (!result.hasMarkers)
+               {
+                  // a file without markers neither defines nor inserts fragments
+                  entry = new FragmentIndex.Entry(attributes, hash, result.fragments, new LinkedHashMap<>(),
+                                                  new ArrayList<>());
+               }
+               else if (oldEntry != null && oldEntry.hash == hash)
+               {
+                  entry = new FragmentIndex.Entry(attributes, hash, result.fragments, oldEntry.inserts,
+                                                  oldEntry.insertions);
+               }
+               else
+               {
+                  entry = new FragmentIndex.Entry(attributes, hash, result.fragments, null, null);
+               }
+               index.put(file, entry);
+            }
+            this.report.bytesRead(reader.getBytesRead());
+         }
+      }
+      catch (IOException e)
+      {
+         this.logProblem(file, "file read problem", e);
+      }
+
+      return result;
+   }
+
+   /**
+    * @return the fragments defined in the file, or {@code null} if the file is not processed
+    */
+   private FileFragments fetchFromMemory(Map.Entry<String, String> file)
+   {
+      final String fileName = file.getKey();
+      final Path path = Paths.get(fileName);
+      if (!this.getPathFilter().acceptsFile(path))
+      {
+         return null;
+      }
+
+      final MarkerSyntax syntax = this.getSyntax(path);
+      if (syntax == null)
+      {
+         this.report.fileSkipped();
+         return null;
+      }
+      this.report.fileScanned();
+
+      final FileFragments result = new FileFragments(path, fileName, syntax);
+      if (this.lazy)
+      {
+         result.insertedKeys = new LinkedHashSet<>();
+      }
+      final byte[] content = file.getValue().getBytes(StandardCharsets.UTF_8);
+      try (final ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream(content), null))
+      {
+         result.hasMarkers = this.fetchFromFile(fileName, syntax, reader, result,
+                                                this.lazy ? Collections.emptySet() : null);
+         if (result.hasMarkers)
+         {
+            result.content = content;
+         }
+      }
+      catch (IllegalArgumentException e)
+      {
+         // fragments before the error are still registered
+         result.error = e;
+      }
+      catch (IOException e)
+      {
+         // cannot happen in memory
+         throw new UncheckedIOException(e);
+      }
+      return result;
+   }
+
+   /**
+    * @return the new content of the file, or {@code null} if it did not change
+    */
+   private String insertInMemory(FileFragments fileFragments)
+   {
+      if (!fileFragments.hasMarkers || !supportsInsertion(fileFragments.syntax))
+      {
+         return null;
+      }
+
+      final byte[] content = fileFragments.content;
+      final ByteArrayOutputStream output = new ByteArrayOutputStream(content.length + 1024);
+      try (final ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream(content), null))
+      {
+         if (!this.insertFragments(fileFragments.fileName, fileFragments.syntax, reader, output,
+                                   new LinkedHashMap<>(), new ArrayList<>()))
+         {
+            return null;
+         }
+      }
+      catch (IOException e)
+      {
+         // cannot happen in memory
+         throw new UncheckedIOException(e);
+      }
+
+      final byte[] newContent = output.toByteArray();
+      if (Arrays.equals(newContent, content))
+      {
+         return null;
+      }
+      this.report.fileRewritten(newContent.length);
+      return new String(newContent, StandardCharsets.UTF_8);
+   }
+
+   /**
+    * @return the content of the file, or {@code null} if it is too large to keep in memory
+    */
+   private static byte[] getRetainedContent(Path file, ByteLineReader reader) throws IOException
+   {
+      reader.skipRest();
+      final byte[] content = reader.getRetainedInput();
+      if (content != null || reader.getBytesRead() > MAX_RETAINED_SIZE)
+      {
+         return content;
+      }
+      // the first marker came after the start of the file had left the buffer
+      return Files.readAllBytes(file);
+   }
+
+   /**
+    * @param keys
+    *    the keys of the fragments whose content is loaded, or {@code null} to load all fragments.
+    *    The keys of other fragments are added to {@link FileFragments#skippedKeys}.
+    *
+    * @return {@code true} if the file contains any markers, i.e. may define or insert fragments
+    */
+   private boolean fetchFromFile(String fileName, MarkerSyntax syntax, ByteLineReader reader, FileFragments result,
+      Set<String> keys) throws IOException
+   {
+      boolean hasMarkers = false;
+      // only lines that contain the marker are decoded, except for the content of fragments
+      while (reader.nextLineContaining(MARKER_BYTES))
+      {
+         if (!hasMarkers)
+         {
+            // only files with markers may need their content again, to insert fragments
+            reader.retainInput();
+            hasMarkers = true;
+         }
+         final String line = reader.getLine();
+         addInsertedKey(syntax, line, result);
+
+         if (syntax.startPattern == null)
+         {
+            if (result.insertedKeys == null)
+            {
+               // cannot define fragments
+               return true;
+            }
+            continue;
+         }
+
+         final Matcher startMatcher = syntax.startPattern.matcher(line);
+         if (!startMatcher.find())
+         {
+            // ordinary text, ignore
+            continue;
+         }
+
+         final String indent = startMatcher.group(1);
+         final String key = startMatcher.group(2);
+         if (keys != null && !keys.contains(key))
+         {
+            skipFragment(fileName, syntax, reader, result);
+            result.skippedKeys.add(key);
+            continue;
+         }
+
+         final StringBuilder contentBuf = new StringBuilder();
+         boolean foundEnd = false;
+
+         while (reader.nextLine())
+         {
+            if (reader.lineContains(MARKER_BYTES))
+            {
+               final String contentLine = reader.getLine();
+               if (syntax.endPattern.matcher(contentLine).find())
+               {
+                  foundEnd = true;
+                  break;
+               }
+               addInsertedKey(syntax, contentLine, result);
+            }
+
+            reader.appendLine(contentBuf, reader.commonPrefixLength(indent));
+            contentBuf.append(System.lineSeparator());
+         }
+
+         if (!foundEnd)
+         {
+            throw new IllegalArgumentException("could not find <!-- end_code_fragment: in " + fileName);
+         }
+
+         result.fragments.add(new AbstractMap.SimpleImmutableEntry<>(key, contentBuf.toString()));
+      }
+      return hasMarkers;
+   }
+
+   private static void skipFragment(String fileName, MarkerSyntax syntax, ByteLineReader reader,
+      FileFragments result) throws IOException
+   {
+      // like the start marker, the end marker contains the marker bytes, so other lines need not be decoded
+      while (reader.nextLineContaining(MARKER_BYTES))
+      {
+         final String line = reader.getLine();
+         if (syntax.endPattern.matcher(line).find())
+         {
+            return;
+         }
+         addInsertedKey(syntax, line, result);
+      }
+      throw new IllegalArgumentException("could not find <!-- end_code_fragment: in " + fileName);
+   }
+
+   /**
+    * Collects the key if the line inserts a fragment, which may also be within the content of another fragment.
+    */
+   private static void addInsertedKey(MarkerSyntax syntax, String line, FileFragments result)
+   {
+      if (result.insertedKeys == null || !syntax.supportsInsertion())
+      {
+         return;
+      }
+
+      final InsertionHeader header = syntax.parseInsertionHeader(line);
+      if (header != null)
+      {
+         result.insertedKeys.add(header.key);
+      }
+   }
+
+   /**
+    * Adds the fragments of lazily fetched files that are inserted by any of them or were recorded by previous
+    * writes, reading their content now.
+    *
+    * @param files
+    *    the files, in the order in which they were visited
+    *
+    * @throws IOException
+    *    if processing the files fails
+    */
+   private void addReferencedFragments(List<FileFragments> files) throws IOException
+   {
+      final Set<String> referenced = new HashSet<>(this.insertingFiles.keySet());
+      int count = 0;
+      while (count < files.size())
+      {
+         final FileFragments fileFragments = files.get(count++);
+         if (fileFragments.insertedKeys != null)
+         {
+            referenced.addAll(fileFragments.insertedKeys);
+         }
+         if (fileFragments.error != null)
+         {
+            // like in eager mode, the files after the first error are not registered
+            break;
+         }
+      }
+
+      this.processFiles(files.subList(0, count), fileFragments -> this.fetchReferenced(fileFragments, referenced),
+                        this::addFragments);
+   }
+
+   /**
+    * @param fileFragments
+    *    the lazily fetched file
+    * @param referenced
+    *    the keys of the fragments to load
+    *
+    * @return the referenced fragments of the file, reading the content of those that were skipped before
+    */
+   private FileFragments fetchReferenced(FileFragments fileFragments, Set<String> referenced)
+   {
+      final FileFragments result = new FileFragments(fileFragments.file, fileFragments.fileName,
+                                                     fileFragments.syntax);
+      result.error = fileFragments.error;
+      if (Collections.disjoint(fileFragments.skippedKeys, referenced))
+      {
+         // also for files whose fragments came from the index or were loaded completely
+         for (Map.Entry<String, String> fragment : fileFragments.fragments)
+         {
+            if (referenced.contains(fragment.getKey()))
+            {
+               result.fragments.add(fragment);
+            }
+         }
+         return result;
+      }
+
+      final byte[] content = fileFragments.content;
+      try (final ByteLineReader reader = new ByteLineReader(
+         content != null ? new ByteArrayInputStream(content) : Files.newInputStream(fileFragments.file), null))
+      {
+         try
+         {
+            this.fetchFromFile(result.fileName, result.syntax, reader, result, referenced);
+         }
+         catch (IllegalArgumentException e)
+         {
+            // the same error as in the first pass, fragments before it are still registered
+         }
+         if (content == null)
+         {
+            this.report.bytesRead(reader.getBytesRead());
+         }
+      }
+      catch (IOException e)
+      {
+         this.logProblem(result.file, "file read problem", e);
+      }
+      return result;
+   }
+
+   private void addFragments(FileFragments fileFragments)
+   {
+      this.report.fragmentsDefined(fileFragments.fragments.size());
+      for (Map.Entry<String, String> fragment : fileFragments.fragments)
+      {
+         final String key = fragment.getKey();
+         if (this.fragmentStore.containsKey(key))
+         {
+            this.warn(System.out, fileFragments.fileName, 0,
+                      "fragment '" + key + "' was already defined, using content from this file");
+         }
+         this.putFragment(key, fragment.getValue());
+      }
+
+      if (fileFragments.error != null)
+      {
+         throw fileFragments.error;
+      }
+   }
+
+   private void putFragment(String key, String content)
    {
-      if (!Files.exists(path))
+      if (this.fragmentStore.put(key, content))
       {
-         return;
+         this.changedKeys.add(key);
+         this.renderCache.invalidate(key);
       }
-      Files.walkFileTree(path, new SimpleFileVisitor<Path>()
-      {
-         @Override
-         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-         {
-            consumer.accept(file);
-            return FileVisitResult.CONTINUE;
-         }
-      });
    }
 
-   private void fetchFromFile(Path file)
+   private void removeFragment(String key)
    {
-      String fileName = file.toString();
+      if (this.fragmentStore.remove(key))
+      {
+         this.changedKeys.add(key);
+         this.renderCache.invalidate(key);
+      }
+   }
 
-      if (!fileName.endsWith(".java") && !fileName.endsWith(".md") && !fileName.endsWith("build.gradle"))
+   private void addInsertions(FileInsertions fileInsertions)
+   {
+      if (fileInsertions.insertions == null)
       {
+         // not a file that supports insertion
          return;
       }
 
-      try (final BufferedReader reader = Files.newBufferedReader(file))
-      {
-         String key = null;
-         String indent = null;
-         final StringBuilder contentBuf = new StringBuilder();
+      final Path file = fileInsertions.file.toAbsolutePath().normalize();
+      final List<FragmentInsertion> oldInsertions = fileInsertions.insertions.isEmpty() ?
+         this.insertions.remove(file) :
+         this.insertions.put(file, fileInsertions.insertions);
 
-         String line;
-         while ((line = reader.readLine()) != null)
+      if (oldInsertions != null)
+      {
+         for (FragmentInsertion insertion : oldInsertions)
          {
-            if (key == null) // outside fragment
-            {
-               final Matcher startMatcher = START_PATTERN.matcher(line);
-               if (startMatcher.find())
-               {
-                  indent = startMatcher.group(1);
-                  key = startMatcher.group(2);
-               }
-               // ordinary text, ignore
-               continue;
-            }
-
-            if (END_PATTERN.matcher(line).find())
-            {
-               if (this.fragmentMap.containsKey(key))
-               {
-                  System.out.printf("%s: warning: fragment '%s' was already defined, using content from this file%n",
-                                    fileName, key);
-               }
-               final String fragmentText = contentBuf.toString();
-               this.fragmentMap.put(key, fragmentText);
-               key = null;
-               contentBuf.setLength(0);
-            }
-            else
+            final Set<Path> files = this.insertingFiles.get(insertion.key);
+            if (files != null && files.remove(file) && files.isEmpty())
             {
-               final int start = commonPrefixLength(line, indent);
-               contentBuf.append(line, start, line.length()).append(System.lineSeparator());
+               this.insertingFiles.remove(insertion.key);
             }
          }
-
-         if (key != null)
-         {
-            throw new IllegalArgumentException("could not find <!-- end_code_fragment: in " + fileName);
-         }
       }
-      catch (IOException e)
+      for (FragmentInsertion insertion : fileInsertions.insertions)
       {
-         Logger.getGlobal().log(Level.WARNING, "file read problem", e);
+         this.insertingFiles.computeIfAbsent(insertion.key, k -> new LinkedHashSet<>()).add(file);
       }
    }
 
-   private static int commonPrefixLength(String a, String b)
+   private FileInsertions insertFragments(FileFragments fileFragments)
    {
-      int i = 0;
-      while (i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i))
+      if (!fileFragments.hasMarkers)
       {
-         i++;
+         // already scanned, nothing to insert
+         final List<FragmentInsertion> insertions = supportsInsertion(fileFragments.syntax) ? new ArrayList<>() : null;
+         return new FileInsertions(fileFragments.file, insertions);
       }
-      return i;
+      return this.insertFragments(fileFragments.file, fileFragments.content);
    }
 
-   private void insertFragments(Path file)
+   /**
+    * @param file
+    *    the file to insert fragments into
+    * @param content
+    *    the content of the file if it is known to contain markers, or {@code null} to read it from the file
+    *
+    * @return the insertion points in the file
+    */
+   private FileInsertions insertFragments(Path file, byte[] content)
    {
       String fileName = file.toString();
-      if (!fileName.endsWith(".java") && !fileName.endsWith(".md"))
+      final MarkerSyntax syntax = this.getSyntax(file);
+      if (!supportsInsertion(syntax))
       {
-         return;
+         return new FileInsertions(file, null);
       }
 
-      final boolean hadInserts;
-      final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-
-      final MessageDigest inputDigest = createDigest();
-      try (final BufferedReader reader = newDigestReader(file, inputDigest);
-           final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream)))
+      final FragmentIndex index = this.getIndex(file);
+      final BasicFileAttributes attributes = index != null ? readAttributes(file) : null;
+      if (attributes != null)
       {
-         hadInserts = this.insertFragments(fileName, reader, writer);
+         final FragmentIndex.Entry entry = index.getUnchanged(file, attributes);
+         if (entry != null && entry.inserts != null && this.isUpToDate(entry.inserts))
+         {
+            // neither the file nor the fragments it inserts changed since the last run
+            return new FileInsertions(file, entry.insertions);
+         }
       }
-      catch (IOException e)
+
+      final Map<String, FragmentStore.Content> insertedFragments = new LinkedHashMap<>();
+      final FileInsertions result = new FileInsertions(file, new ArrayList<>());
+
+      // checksums are only needed for the index
+      Checksum inputChecksum = attributes != null ? this.changeDetector.newChecksum() : null;
+      if (content == null)
       {
-         Logger.getGlobal().log(Level.WARNING, "file read problem", e);
-         return;
+         try (final ByteLineReader reader = new ByteLineReader(Files.newInputStream(file), inputChecksum))
+         {
+            final boolean hasMarkers = reader.nextLineContaining(MARKER_BYTES);
+            this.report.bytesRead(reader.getBytesRead());
+            if (!hasMarkers)
+            {
+               // no markers at all, nothing to insert
+               this.recordInserts(file, attributes, inputChecksum, insertedFragments, result.insertions);
+               return result;
+            }
+         }
+         catch (IOException e)
+         {
+            this.logProblem(file, "file read problem", e);
+            return new FileInsertions(file, null);
+         }
       }
 
-      if (!hadInserts)
+      // the new content is streamed to a temporary file, which only replaces the file if the content differs
+      if (inputChecksum != null)
       {
-         // no inserts at all; skip writing file
-         return;
+         inputChecksum.reset();
       }
+      try (final ReplacingOutputStream output = new ReplacingOutputStream(file, content))
+      {
+         final boolean hadInserts;
+         final InputStream input = content != null ? new ByteArrayInputStream(content) : Files.newInputStream(file);
+         try (final ByteLineReader reader = new ByteLineReader(input, inputChecksum))
+         {
+            hadInserts = this.insertFragments(fileName, syntax, reader, output, insertedFragments,
+                                              result.insertions);
+            if (content == null)
+            {
+               this.report.bytesRead(reader.getBytesRead());
+            }
+         }
+
+         // no inserts at all, or input and output content equal; skip writing file
+         if (!hadInserts || !output.commit())
+         {
+            this.recordInserts(file, attributes, inputChecksum, insertedFragments, result.insertions);
+            return result;
+         }
 
-      final byte[] bytes = outputStream.toByteArray();
-      final MessageDigest outputDigest = createDigest();
-      outputDigest.update(bytes);
+         if (index != null)
+         {
+            // the new content will be indexed on the next run
+            index.remove(file);
+         }
+         result.written = true;
+         this.report.fileRewritten(output.getLength());
+      }
+      catch (IOException e)
+      {
+         this.logProblem(file, "file update problem", e);
+         return new FileInsertions(file, null);
+      }
+      return result;
+   }
 
-      if (Arrays.equals(inputDigest.digest(), outputDigest.digest()))
+   private boolean isUpToDate(Map<String, Long> inserts)
+   {
+      for (Map.Entry<String, Long> insert : inserts.entrySet())
       {
-         // input and output content equal; skip writing file
-         return;
+         final FragmentStore.Content content = this.fragmentStore.get(insert.getKey());
+         if (content == null || this.hashContent(content) != insert.getValue())
+         {
+            return false;
+         }
       }
+      return true;
+   }
 
-      try
+   private void recordInserts(Path file, BasicFileAttributes attributes, Checksum checksum,
+      Map<String, FragmentStore.Content> insertedFragments, List<FragmentInsertion> insertions)
+   {
+      // files with warnings are not recorded, so the warnings are reported again on the next run
+      if (attributes == null || insertedFragments.containsValue(null))
       {
-         Files.write(file, bytes);
+         return;
       }
-      catch (IOException e)
+
+      final Map<String, Long> inserts = new LinkedHashMap<>();
+      for (Map.Entry<String, FragmentStore.Content> fragment : insertedFragments.entrySet())
       {
-         Logger.getGlobal().log(Level.WARNING, "file write problem", e);
+         inserts.put(fragment.getKey(), this.hashContent(fragment.getValue()));
       }
+
+      final long hash = checksum.getValue();
+      final FragmentIndex.Entry oldEntry = this.index.get(file);
+      final boolean sameContent = oldEntry != null && oldEntry.hash == hash;
+      this.index.put(file, new FragmentIndex.Entry(attributes, hash, sameContent ? oldEntry.fragments : null,
+                                                   inserts, insertions));
    }
 
-   private boolean insertFragments(String fileName, BufferedReader reader, BufferedWriter writer) throws IOException
+   private boolean insertFragments(String fileName, MarkerSyntax syntax, ByteLineReader reader, OutputStream output,
+      Map<String, FragmentStore.Content> insertedFragments, List<FragmentInsertion> insertions) throws IOException
    {
       boolean hadInserts = false;
       String key = null;
+      // an undefined fragment, whose old content is copied
+      String undefinedKey = null;
+      int startLineNum = 0;
 
-      String line;
-      for (int lineNum = 1; (line = reader.readLine()) != null; lineNum++)
+      while (reader.nextLine())
       {
+         final int lineNum = reader.getLineNumber();
          if (key != null) // inside fragment
          {
-            if (INSERT_END_PATTERN.matcher(line).find())
+            if (reader.lineContains(MARKER_BYTES) && syntax.isInsertionEnd(reader.getLine()))
             {
                // copy the <!-- end ... --> line
-               writeLine(writer, line);
+               writeLine(reader, output);
+               insertions.add(new FragmentInsertion(key, startLineNum, lineNum));
                key = null;
             }
 
@@ -550,50 +2158,56 @@ public class CodeFragments
          }
 
          // outside fragments, copy the current line in any case (even the <!-- insert ... -->)
-         writeLine(writer, line);
+         writeLine(reader, output);
 
-         final Matcher startMatcher = INSERT_START_PATTERN.matcher(line);
-         if (!startMatcher.find())
+         if (!reader.lineContains(MARKER_BYTES))
+         {
+            continue;
+         }
+
+         final String line = reader.getLine();
+         if (undefinedKey != null && syntax.isInsertionEnd(line))
+         {
+            insertions.add(new FragmentInsertion(undefinedKey, startLineNum, lineNum));
+            undefinedKey = null;
+            continue;
+         }
+
+         final InsertionHeader header = syntax.parseInsertionHeader(line);
+         if (header == null)
          {
             continue;
          }
 
-         key = startMatcher.group(2);
-         String content = this.fragmentMap.get(key);
+         key = header.key;
+         startLineNum = lineNum;
+         final FragmentStore.Content content = this.fragmentStore.get(key);
          if (content == null)
          {
-            System.err.printf("%s:%d: warning: undefined fragment '%s' was not inserted%n", fileName, lineNum, key);
+            this.warn(System.err, fileName, lineNum, "undefined fragment '" + key + "' was not inserted");
+            insertedFragments.put(key, null);
+            undefinedKey = key;
             key = null;
             continue;
          }
-
-         // currently, this only matches one pipe because the regex uses ? instead of *.
-         // the reason is that regex can only match a fixed number of groups, see
-         // https://stackoverflow.com/questions/5018487/regular-expression-with-variable-number-of-groups
-         for (int i = 3; i <= startMatcher.groupCount(); i++)
+         if (!insertedFragments.containsKey(key))
          {
-            final String arg = startMatcher.group(i);
-            if (arg == null)
-            {
-               continue;
-            }
+            insertedFragments.put(key, content);
+         }
 
-            final String pipeName = getPipeName(arg);
-            final Pipe pipe = this.getPipe(pipeName);
-            if (pipe != null)
-            {
-               content = pipe.apply(content, arg);
-            }
-            else
-            {
-               System.err.printf("%s:%d: warning: unknown pipe '%s', skipping%n", fileName, lineNum, pipeName);
-            }
+         final List<String> pipeArgs = this.knownPipeArgs(fileName, lineNum, header.pipeArgs);
+         if (pipeArgs != header.pipeArgs)
+         {
+            insertedFragments.put(key, null);
          }
+         final String pipeChain = pipeArgs == header.pipeArgs ? header.pipeChain : String.join("|", pipeArgs);
 
          // insert the fragment right away
          hadInserts = true;
-         final String indent = startMatcher.group(1);
-         this.writeFragment(writer, indent, content);
+         final byte[][] lines = this.renderCache.render(key, content, pipeChain,
+                                                        c -> this.applyPipes(c.toString(), pipeArgs));
+         writeFragment(output, header.indent, lines);
+         this.report.fragmentInserted();
       }
 
       if (key != null)
@@ -604,6 +2218,37 @@ public class CodeFragments
       return hadInserts;
    }
 
+   /**
+    * @return the pipe arguments themselves if all pipes are known, otherwise a copy without the unknown pipes
+    */
+   private List<String> knownPipeArgs(String fileName, int lineNum, List<String> pipeArgs)
+   {
+      List<String> result = pipeArgs;
+      for (String arg : pipeArgs)
+      {
+         final String pipeName = getPipeName(arg);
+         if (this.getPipe(pipeName) == null)
+         {
+            this.warn(System.err, fileName, lineNum, "unknown pipe '" + pipeName + "', skipping");
+            result = null;
+         }
+      }
+      if (result != null)
+      {
+         return result;
+      }
+
+      result = new ArrayList<>(pipeArgs.size());
+      for (String arg : pipeArgs)
+      {
+         if (this.getPipe(getPipeName(arg)) != null)
+         {
+            result.add(arg);
+         }
+      }
+      return result;
+   }
+
    private static String getPipeName(String arg)
    {
       final int colonIndex = arg.indexOf(':');
@@ -614,38 +2259,339 @@ public class CodeFragments
       return arg;
    }
 
-   private static void writeLine(BufferedWriter writer, String line) throws IOException
+   private CharSequence applyPipes(String content, List<String> pipeArgs)
+   {
+      if (pipeArgs.isEmpty())
+      {
+         return content;
+      }
+
+      // the pipes write into two buffers in turn, so no intermediate strings are needed
+      CharSequence input = content;
+      StringBuilder output = null;
+      for (String arg : pipeArgs)
+      {
+         if (output == null)
+         {
+            output = new StringBuilder(input.length() + 64);
+         }
+         try
+         {
+            this.getPipe(getPipeName(arg)).apply(input, arg, output);
+         }
+         catch (IOException e)
+         {
+            // cannot happen with a StringBuilder
+            throw new UncheckedIOException(e);
+         }
+
+         final StringBuilder previous = input instanceof StringBuilder ? (StringBuilder) input : null;
+         input = output;
+         output = previous;
+         if (output != null)
+         {
+            output.setLength(0);
+         }
+      }
+      return input;
+   }
+
+   private static void writeLine(ByteLineReader reader, OutputStream output) throws IOException
    {
-      writer.write(line);
-      writer.write(System.lineSeparator());
+      reader.writeLine(output);
+      output.write(LINE_SEPARATOR_BYTES);
    }
 
-   private void writeFragment(BufferedWriter writer, String indent, String content) throws IOException
+   private static void writeFragment(OutputStream output, String indent, byte[][] lines) throws IOException
    {
-      for (String contentLine : content.split(System.lineSeparator()))
+      final byte[] indentBytes = indent.getBytes(StandardCharsets.UTF_8);
+      for (byte[] line : lines)
       {
-         writer.write(indent);
-         writeLine(writer, contentLine);
+         output.write(indentBytes);
+         output.write(line);
+         output.write(LINE_SEPARATOR_BYTES);
       }
    }
 
-   private static BufferedReader newDigestReader(Path file, MessageDigest inputDigest) throws IOException
+   private long hashContent(FragmentStore.Content content)
    {
-      return new BufferedReader(
-         new InputStreamReader(new DigestInputStream(Files.newInputStream(file), inputDigest), StandardCharsets.UTF_8));
+      final Checksum checksum = this.changeDetector.newChecksum();
+      content.update(checksum);
+      return checksum.getValue();
    }
 
-   private static MessageDigest createDigest()
+   // =============== Classes ===============
+
+   private static final class FileFragments
    {
-      final MessageDigest inputDigest;
-      try
+      final Path file;
+      final String fileName;
+      final MarkerSyntax syntax;
+      final List<Map.Entry<String, String>> fragments = new ArrayList<>();
+      RuntimeException error;
+
+      /**
+       * The keys of the fragments that are defined in the file but whose content was not loaded.
+       */
+      final List<String> skippedKeys = new ArrayList<>();
+
+      /**
+       * The keys of the fragments that are inserted into the file if it was fetched lazily, otherwise {@code null}.
+       */
+      Set<String> insertedKeys;
+
+      /**
+       * Whether the file contains any markers. {@code true} if unknown, e.g. because the fragments came from the index.
+       */
+      boolean hasMarkers = true;
+
+      /**
+       * The content of the file if it was retained for inserting fragments, otherwise {@code null}.
+       */
+      byte[] content;
+
+      FileFragments(Path file, MarkerSyntax syntax)
+      {
+         this(file, file.toString(), syntax);
+      }
+
+      FileFragments(Path file, String fileName, MarkerSyntax syntax)
+      {
+         this.file = file;
+         this.fileName = fileName;
+         this.syntax = syntax;
+      }
+   }
+
+   private static final class FileInsertions
+   {
+      final Path file;
+      /**
+       * The insertion points in the file, or {@code null} if the file does not support insertion.
+       */
+      final List<FragmentInsertion> insertions;
+      boolean written;
+
+      FileInsertions(Path file, List<FragmentInsertion> insertions)
+      {
+         this.file = file;
+         this.insertions = insertions;
+      }
+   }
+
+   /**
+    * The map returned by {@link #getFragmentMap()}.
+    * It reads from and writes to the fragment store, the table inherited from {@link LinkedHashMap} stays empty.
+    */
+   private final class FragmentMap extends LinkedHashMap<String, String>
+   {
+      private static final long serialVersionUID = 1L;
+
+      private Map<String, String> fragments()
+      {
+         return fragmentStore.asMap();
+      }
+
+      @Override
+      public int size()
+      {
+         return this.fragments().size();
+      }
+
+      @Override
+      public boolean isEmpty()
+      {
+         return this.fragments().isEmpty();
+      }
+
+      @Override
+      public boolean containsKey(Object key)
+      {
+         return this.fragments().containsKey(key);
+      }
+
+      @Override
+      public boolean containsValue(Object value)
+      {
+         return this.fragments().containsValue(value);
+      }
+
+      @Override
+      public String get(Object key)
+      {
+         return this.fragments().get(key);
+      }
+
+      @Override
+      public String getOrDefault(Object key, String defaultValue)
+      {
+         return this.fragments().getOrDefault(key, defaultValue);
+      }
+
+      @Override
+      public Set<String> keySet()
+      {
+         return this.fragments().keySet();
+      }
+
+      @Override
+      public Collection<String> values()
+      {
+         return this.fragments().values();
+      }
+
+      @Override
+      public Set<Map.Entry<String, String>> entrySet()
+      {
+         return this.fragments().entrySet();
+      }
+
+      @Override
+      public void forEach(BiConsumer<? super String, ? super String> action)
+      {
+         this.fragments().forEach(action);
+      }
+
+      @Override
+      public String put(String key, String value)
+      {
+         final String oldValue = this.get(key);
+         putFragment(key, value);
+         return oldValue;
+      }
+
+      @Override
+      public void putAll(Map<? extends String, ? extends String> map)
+      {
+         for (Map.Entry<? extends String, ? extends String> entry : map.entrySet())
+         {
+            this.put(entry.getKey(), entry.getValue());
+         }
+      }
+
+      @Override
+      public String putIfAbsent(String key, String value)
+      {
+         final String oldValue = this.get(key);
+         if (oldValue == null)
+         {
+            this.put(key, value);
+         }
+         return oldValue;
+      }
+
+      @Override
+      public String remove(Object key)
+      {
+         final String oldValue = this.get(key);
+         if (oldValue != null)
+         {
+            removeFragment((String) key);
+         }
+         return oldValue;
+      }
+
+      @Override
+      public boolean remove(Object key, Object value)
+      {
+         if (value == null || !value.equals(this.get(key)))
+         {
+            return false;
+         }
+         removeFragment((String) key);
+         return true;
+      }
+
+      @Override
+      public String replace(String key, String value)
+      {
+         return this.containsKey(key) ? this.put(key, value) : null;
+      }
+
+      @Override
+      public boolean replace(String key, String oldValue, String newValue)
+      {
+         if (oldValue == null || !oldValue.equals(this.get(key)))
+         {
+            return false;
+         }
+         this.put(key, newValue);
+         return true;
+      }
+
+      @Override
+      public void replaceAll(BiFunction<? super String, ? super String, ? extends String> function)
+      {
+         for (String key : new ArrayList<>(this.keySet()))
+         {
+            this.put(key, function.apply(key, this.get(key)));
+         }
+      }
+
+      @Override
+      public String computeIfAbsent(String key, Function<? super String, ? extends String> mappingFunction)
+      {
+         final String oldValue = this.get(key);
+         if (oldValue != null)
+         {
+            return oldValue;
+         }
+         final String newValue = mappingFunction.apply(key);
+         if (newValue != null)
+         {
+            this.put(key, newValue);
+         }
+         return newValue;
+      }
+
+      @Override
+      public String computeIfPresent(String key,
+         BiFunction<? super String, ? super String, ? extends String> remappingFunction)
+      {
+         final String oldValue = this.get(key);
+         return oldValue != null ? this.store(key, remappingFunction.apply(key, oldValue)) : null;
+      }
+
+      @Override
+      public String compute(String key, BiFunction<? super String, ? super String, ? extends String> remappingFunction)
       {
-         inputDigest = MessageDigest.getInstance("SHA-1");
+         return this.store(key, remappingFunction.apply(key, this.get(key)));
       }
-      catch (NoSuchAlgorithmException e)
+
+      @Override
+      public String merge(String key, String value,
+         BiFunction<? super String, ? super String, ? extends String> remappingFunction)
+      {
+         final String oldValue = this.get(key);
+         return this.store(key, oldValue != null ? remappingFunction.apply(oldValue, value) : value);
+      }
+
+      @Override
+      public void clear()
+      {
+         for (String key : new ArrayList<>(this.keySet()))
+         {
+            removeFragment(key);
+         }
+      }
+
+      @Override
+      public Object clone()
+      {
+         return new LinkedHashMap<>(this.fragments());
+      }
+
+      private String store(String key, String value)
       {
-         throw new RuntimeException(e);
+         if (value == null)
+         {
+            removeFragment(key);
+         }
+         else
+         {
+            putFragment(key, value);
+         }
+         return value;
       }
-      return inputDigest;
    }
 }
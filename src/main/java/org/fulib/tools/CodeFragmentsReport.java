@@ -0,0 +1,358 @@
+package org.fulib.tools;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics and warnings of a single {@link CodeFragments} run,
+ * e.g. of {@link CodeFragments#update(String...)}.
+ * <p>
+ * Example:
+ * <pre><code>
+ *    final CodeFragments fragments = FulibTools.codeFragments();
+ *    fragments.update(".");
+ *    Files.write(Paths.get("build/codeFragments.json"), fragments.getReport().toJson().getBytes(UTF_8));
+ * </code></pre>
+ *
+ * @see CodeFragments#getReport()
+ * @since 1.7
+ */
+public final class CodeFragmentsReport
+{
+   // =============== Constants ===============
+
+   /**
+    * The phase in which the index file is read and written.
+    */
+   public static final String PHASE_INDEX = "index";
+
+   /**
+    * The phase in which fragments are loaded from files.
+    */
+   public static final String PHASE_LOAD = "load";
+
+   /**
+    * The phase in which fragments are inserted into files.
+    */
+   public static final String PHASE_WRITE = "write";
+
+   // =============== Fields ===============
+
+   private final long startNanos = System.nanoTime();
+   private long totalNanos = -1;
+
+   private final LongAdder filesScanned = new LongAdder();
+   private final LongAdder filesSkipped = new LongAdder();
+   private final LongAdder filesRewritten = new LongAdder();
+   private final LongAdder fragmentsDefined = new LongAdder();
+   private final LongAdder insertions = new LongAdder();
+   private final LongAdder bytesRead = new LongAdder();
+   private final LongAdder bytesWritten = new LongAdder();
+
+   private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+   private final List<Warning> warnings = Collections.synchronizedList(new ArrayList<>());
+
+   // =============== Constructors ===============
+
+   CodeFragmentsReport()
+   {
+   }
+
+   // =============== Properties ===============
+
+   /**
+    * @return the number of files that were processed
+    */
+   public long getFilesScanned()
+   {
+      return this.filesScanned.sum();
+   }
+
+   /**
+    * @return the number of files that were skipped because they did not match any
+    * {@linkplain CodeFragments#addFileType(String, org.fulib.tools.fragments.FileType) file type}
+    */
+   public long getFilesSkipped()
+   {
+      return this.filesSkipped.sum();
+   }
+
+   /**
+    * @return the number of files whose content changed and that were written
+    */
+   public long getFilesRewritten()
+   {
+      return this.filesRewritten.sum();
+   }
+
+   /**
+    * @return the number of fragment definitions that were loaded from files
+    */
+   public long getFragmentsDefined()
+   {
+      return this.fragmentsDefined.sum();
+   }
+
+   /**
+    * @return the number of times a fragment was inserted into a file,
+    * not counting files that were up to date according to the {@linkplain CodeFragments#setIndexFile(String) index}
+    */
+   public long getInsertions()
+   {
+      return this.insertions.sum();
+   }
+
+   /**
+    * @return the number of bytes read from files to find fragments and insertion points
+    */
+   public long getBytesRead()
+   {
+      return this.bytesRead.sum();
+   }
+
+   /**
+    * @return the number of bytes written to files that were rewritten
+    */
+   public long getBytesWritten()
+   {
+      return this.bytesWritten.sum();
+   }
+
+   /**
+    * @return the wall time of the whole run, in nanoseconds
+    */
+   public long getTotalNanos()
+   {
+      return this.totalNanos >= 0 ? this.totalNanos : System.nanoTime() - this.startNanos;
+   }
+
+   /**
+    * @return the wall time of each phase that took place, in nanoseconds, in the order in which the phases started
+    *
+    * @see #PHASE_INDEX
+    * @see #PHASE_LOAD
+    * @see #PHASE_WRITE
+    */
+   public Map<String, Long> getPhaseNanos()
+   {
+      return Collections.unmodifiableMap(this.phaseNanos);
+   }
+
+   /**
+    * @return the warnings, which are also printed to {@link System#out} or {@link System#err}
+    */
+   public List<Warning> getWarnings()
+   {
+      synchronized (this.warnings)
+      {
+         return Collections.unmodifiableList(new ArrayList<>(this.warnings));
+      }
+   }
+
+   // =============== Methods ===============
+
+   void fileScanned()
+   {
+      this.filesScanned.increment();
+   }
+
+   void filesScanned(int count)
+   {
+      this.filesScanned.add(count);
+   }
+
+   void fileSkipped()
+   {
+      this.filesSkipped.increment();
+   }
+
+   void fileRewritten(long bytes)
+   {
+      this.filesRewritten.increment();
+      this.bytesWritten.add(bytes);
+   }
+
+   void fragmentsDefined(int count)
+   {
+      this.fragmentsDefined.add(count);
+   }
+
+   void fragmentInserted()
+   {
+      this.insertions.increment();
+   }
+
+   void bytesRead(long bytes)
+   {
+      this.bytesRead.add(bytes);
+   }
+
+   void addPhaseNanos(String phase, long nanos)
+   {
+      this.phaseNanos.merge(phase, nanos, Long::sum);
+   }
+
+   Warning addWarning(String file, int line, String message)
+   {
+      final Warning warning = new Warning(file, line, message);
+      this.warnings.add(warning);
+      return warning;
+   }
+
+   void finish()
+   {
+      this.totalNanos = System.nanoTime() - this.startNanos;
+   }
+
+   /**
+    * @return this report as a JSON object
+    */
+   public String toJson()
+   {
+      final StringBuilder builder = new StringBuilder();
+      builder.append("{\n");
+      builder.append("  \"filesScanned\": ").append(this.getFilesScanned()).append(",\n");
+      builder.append("  \"filesSkipped\": ").append(this.getFilesSkipped()).append(",\n");
+      builder.append("  \"filesRewritten\": ").append(this.getFilesRewritten()).append(",\n");
+      builder.append("  \"fragmentsDefined\": ").append(this.getFragmentsDefined()).append(",\n");
+      builder.append("  \"insertions\": ").append(this.getInsertions()).append(",\n");
+      builder.append("  \"bytesRead\": ").append(this.getBytesRead()).append(",\n");
+      builder.append("  \"bytesWritten\": ").append(this.getBytesWritten()).append(",\n");
+      builder.append("  \"totalNanos\": ").append(this.getTotalNanos()).append(",\n");
+
+      builder.append("  \"phaseNanos\": {");
+      String separator = "\n";
+      for (Map.Entry<String, Long> phase : this.phaseNanos.entrySet())
+      {
+         builder.append(separator).append("    ");
+         appendJsonString(builder, phase.getKey());
+         builder.append(": ").append(phase.getValue());
+         separator = ",\n";
+      }
+      builder.append(this.phaseNanos.isEmpty() ? "},\n" : "\n  },\n");
+
+      builder.append("  \"warnings\": [");
+      separator = "\n";
+      final List<Warning> warnings = this.getWarnings();
+      for (Warning warning : warnings)
+      {
+         builder.append(separator).append("    { \"file\": ");
+         appendJsonString(builder, warning.getFile());
+         builder.append(", \"line\": ").append(warning.getLine() > 0 ? String.valueOf(warning.getLine()) : "null");
+         builder.append(", \"message\": ");
+         appendJsonString(builder, warning.getMessage());
+         builder.append(" }");
+         separator = ",\n";
+      }
+      builder.append(warnings.isEmpty() ? "]\n" : "\n  ]\n");
+
+      return builder.append("}\n").toString();
+   }
+
+   private static void appendJsonString(StringBuilder builder, String value)
+   {
+      if (value == null)
+      {
+         builder.append("null");
+         return;
+      }
+
+      builder.append('"');
+      for (int i = 0; i < value.length(); i++)
+      {
+         final char c = value.charAt(i);
+         switch (c)
+         {
+         case '"':
+            builder.append("\\\"");
+            break;
+         case '\\':
+            builder.append("\\\\");
+            break;
+         case '\n':
+            builder.append("\\n");
+            break;
+         case '\r':
+            builder.append("\\r");
+            break;
+         case '\t':
+            builder.append("\\t");
+            break;
+         default:
+            if (c < 0x20)
+            {
+               builder.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+               builder.append(c);
+            }
+         }
+      }
+      builder.append('"');
+   }
+
+   @Override
+   public String toString()
+   {
+      return this.toJson();
+   }
+
+   // =============== Classes ===============
+
+   /**
+    * A problem that did not stop the run, e.g. an undefined fragment.
+    */
+   public static final class Warning
+   {
+      private final String file;
+      private final int line;
+      private final String message;
+
+      Warning(String file, int line, String message)
+      {
+         this.file = file;
+         this.line = line;
+         this.message = message;
+      }
+
+      /**
+       * @return the file in which the problem occurred, or {@code null} if it does not belong to a file
+       */
+      public String getFile()
+      {
+         return this.file;
+      }
+
+      /**
+       * @return the line number at which the problem occurred, or {@code 0} if it does not belong to a line
+       */
+      public int getLine()
+      {
+         return this.line;
+      }
+
+      /**
+       * @return the message
+       */
+      public String getMessage()
+      {
+         return this.message;
+      }
+
+      /**
+       * @return the warning in the format in which it is printed
+       */
+      @Override
+      public String toString()
+      {
+         if (this.file == null)
+         {
+            return "warning: " + this.message;
+         }
+         return this.line > 0 ?
+            this.file + ":" + this.line + ": warning: " + this.message :
+            this.file + ": warning: " + this.message;
+      }
+   }
+}
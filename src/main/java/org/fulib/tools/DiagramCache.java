@@ -0,0 +1,380 @@
+package org.fulib.tools;
+
+import guru.nidi.graphviz.engine.Format;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Keeps rendered diagrams in a directory, so that diagrams that did not change since a previous run are copied
+ * instead of rendered again.
+ * <p>
+ * Diagrams are identified by a hash of their DOT description, format, scale factor and the
+ * {@linkplain DiagramRenderer#getName() name of the renderer}.
+ * When the directory grows beyond the {@linkplain #setMaxSize(long) maximum size},
+ * the least recently used diagrams are deleted until it is down to three quarters of the maximum size.
+ * The size of the directory is tracked in memory and only determined again when it seems to exceed the maximum,
+ * so diagrams added by other processes are taken into account late.
+ * The cache does not know which version of Graphviz produced a diagram,
+ * so it should be {@linkplain #clear() cleared} when switching to a different one.
+ * <p>
+ * Example:
+ * <pre><code>
+ *    final DiagramCache cache = new DiagramCache("build/diagramCache");
+ *    FulibTools.objectDiagrams().withCache(cache).dumpSVG("tmp/studyRight.svg", studyRight);
+ *    FulibTools.classDiagrams().withCache(cache).dumpSVG(model, "tmp/classDiagram.svg");
+ * </code></pre>
+ * <p>
+ * This class is thread-safe, and several processes may share the same directory.
+ *
+ * @see ObjectDiagrams#setCache(DiagramCache)
+ * @see ClassDiagrams#setCache(DiagramCache)
+ * @see ScenarioDiagrams#setCache(DiagramCache)
+ * @since 1.7
+ */
+public final class DiagramCache
+{
+   // =============== Constants ===============
+
+   /**
+    * The default maximum size of the cache directory, in bytes.
+    */
+   public static final long DEFAULT_MAX_SIZE = 64L << 20;
+
+   private static final String TEMP_SUFFIX = ".tmp";
+
+   private static final long UNKNOWN_SIZE = -1;
+
+   private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+   // =============== Fields ===============
+
+   private final Path directory;
+
+   private volatile long maxSize = DEFAULT_MAX_SIZE;
+
+   // guarded by this
+   private long size = UNKNOWN_SIZE;
+
+   private final LongAdder hits = new LongAdder();
+   private final LongAdder misses = new LongAdder();
+
+   // =============== Constructors ===============
+
+   /**
+    * @param directory
+    *    the directory in which the rendered diagrams are kept, which is created when needed
+    */
+   public DiagramCache(String directory)
+   {
+      this.directory = Paths.get(directory);
+   }
+
+   // =============== Properties ===============
+
+   /**
+    * @return the directory in which the rendered diagrams are kept
+    */
+   public String getDirectory()
+   {
+      return this.directory.toString();
+   }
+
+   /**
+    * @return the maximum size of the cache directory, in bytes
+    */
+   public long getMaxSize()
+   {
+      return this.maxSize;
+   }
+
+   /**
+    * @param maxSize
+    *    the maximum size of the cache directory, in bytes
+    *
+    * @throws IllegalArgumentException
+    *    if {@code maxSize} is negative
+    */
+   public void setMaxSize(long maxSize)
+   {
+      if (maxSize < 0)
+      {
+         throw new IllegalArgumentException("maxSize must be at least 0, but was " + maxSize);
+      }
+      this.maxSize = maxSize;
+   }
+
+   /**
+    * Sets the maximum size of the cache directory, in bytes.
+    * Default is {@link #DEFAULT_MAX_SIZE}.
+    *
+    * @param maxSize
+    *    the maximum size of the cache directory, in bytes
+    *
+    * @return this instance, to allow method chaining
+    *
+    * @throws IllegalArgumentException
+    *    if {@code maxSize} is negative
+    */
+   public DiagramCache withMaxSize(long maxSize)
+   {
+      this.setMaxSize(maxSize);
+      return this;
+   }
+
+   /**
+    * @return the number of diagrams that were copied from the cache
+    */
+   public long getHits()
+   {
+      return this.hits.sum();
+   }
+
+   /**
+    * @return the number of diagrams that had to be rendered
+    */
+   public long getMisses()
+   {
+      return this.misses.sum();
+   }
+
+   // =============== Methods ===============
+
+   /**
+    * Deletes all diagrams from the cache directory.
+    *
+    * @throws IOException
+    *    if the directory could not be listed or a diagram could not be deleted
+    */
+   public synchronized void clear() throws IOException
+   {
+      this.size = UNKNOWN_SIZE;
+      for (final Entry entry : this.listEntries())
+      {
+         Files.deleteIfExists(entry.path);
+      }
+   }
+
+   /**
+    * Copies a diagram from the cache.
+    *
+    * @param key
+    *    the key of the diagram, see {@link #getKey(String, String, Format, double)}
+    * @param file
+    *    the file to write
+    *
+    * @return {@code true} if the diagram was copied, {@code false} if it is not in the cache
+    */
+   boolean copy(String key, Path file)
+   {
+      final Path entry = this.directory.resolve(key);
+      try
+      {
+         Files.copy(entry, file, StandardCopyOption.REPLACE_EXISTING);
+         // the modification time tells which diagrams were used least recently
+         Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+         this.hits.increment();
+         return true;
+      }
+      catch (IOException e)
+      {
+         // not cached, or just evicted by another thread
+         this.misses.increment();
+         return false;
+      }
+   }
+
+   /**
+    * Adds a rendered diagram to the cache.
+    * Problems with the cache directory are ignored, the diagram just won't be cached.
+    *
+    * @param key
+    *    the key of the diagram, see {@link #getKey(String, String, Format, double)}
+    * @param file
+    *    the rendered diagram
+    */
+   void add(String key, Path file)
+   {
+      final Path entry = this.directory.resolve(key);
+      try
+      {
+         Files.createDirectories(this.directory);
+         // copy to a temporary file first, so other threads and processes never see a partial diagram
+         final Path temp = Files.createTempFile(this.directory, key, TEMP_SUFFIX);
+         final long entrySize;
+         try
+         {
+            Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            entrySize = Files.size(temp);
+            move(temp, entry);
+         }
+         finally
+         {
+            Files.deleteIfExists(temp);
+         }
+         this.added(entrySize);
+      }
+      catch (IOException ignored)
+      {
+         // caching is optional
+      }
+   }
+
+   private static void move(Path source, Path target) throws IOException
+   {
+      try
+      {
+         Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e)
+      {
+         Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+   }
+
+   private synchronized void added(long entrySize) throws IOException
+   {
+      if (this.size == UNKNOWN_SIZE)
+      {
+         this.evict();
+         return;
+      }
+
+      // replaced entries are counted twice, which is corrected when the directory is listed again
+      this.size += entrySize;
+      if (this.size > this.maxSize)
+      {
+         this.evict();
+      }
+   }
+
+   private synchronized void evict() throws IOException
+   {
+      final List<Entry> entries = this.listEntries();
+      long size = 0;
+      for (final Entry entry : entries)
+      {
+         size += entry.size;
+      }
+
+      final long maxSize = this.maxSize;
+      if (size > maxSize)
+      {
+         // leave some room, so the next diagrams do not list the directory again
+         final long targetSize = maxSize - maxSize / 4;
+         entries.sort(Comparator.comparing(entry -> entry.lastModified));
+         for (final Entry entry : entries)
+         {
+            if (size <= targetSize)
+            {
+               break;
+            }
+            Files.deleteIfExists(entry.path);
+            size -= entry.size;
+         }
+      }
+      this.size = size;
+   }
+
+   private List<Entry> listEntries() throws IOException
+   {
+      final List<Entry> entries = new ArrayList<>();
+      if (!Files.isDirectory(this.directory))
+      {
+         return entries;
+      }
+
+      try (final Stream<Path> paths = Files.list(this.directory))
+      {
+         for (final Path path : (Iterable<Path>) paths::iterator)
+         {
+            if (path.getFileName().toString().endsWith(TEMP_SUFFIX))
+            {
+               continue;
+            }
+
+            try
+            {
+               final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+               if (attributes.isRegularFile())
+               {
+                  entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime()));
+               }
+            }
+            catch (NoSuchFileException ignored)
+            {
+               // deleted in the meantime
+            }
+         }
+      }
+      return entries;
+   }
+
+   /**
+    * @param rendererName
+    *    the name of the renderer that renders the diagram
+    * @param dotString
+    *    the DOT description of the diagram
+    * @param format
+    *    the format of the diagram
+    * @param scale
+    *    the scale factor of the diagram
+    *
+    * @return the key of the diagram, which is also its file name in the cache directory
+    */
+   static String getKey(String rendererName, String dotString, Format format, double scale)
+   {
+      final MessageDigest digest;
+      try
+      {
+         digest = MessageDigest.getInstance("SHA-256");
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         // every Java platform supports SHA-256
+         throw new IllegalStateException(e);
+      }
+
+      digest.update((rendererName + '\n' + format.name() + '\n' + scale + '\n').getBytes(StandardCharsets.UTF_8));
+      final byte[] hash = digest.digest(dotString.getBytes(StandardCharsets.UTF_8));
+
+      final StringBuilder builder = new StringBuilder(hash.length * 2 + 8);
+      for (final byte b : hash)
+      {
+         builder.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+      }
+      return builder.append('.').append(getExtension(format)).toString();
+   }
+
+   private static String getExtension(Format format)
+   {
+      return format == Format.SVG_STANDALONE ? "svg" : format.name().toLowerCase(Locale.ROOT);
+   }
+
+   // =============== Classes ===============
+
+   private static final class Entry
+   {
+      final Path path;
+      final long size;
+      final FileTime lastModified;
+
+      Entry(Path path, long size, FileTime lastModified)
+      {
+         this.path = path;
+         this.size = size;
+         this.lastModified = lastModified;
+      }
+   }
+}
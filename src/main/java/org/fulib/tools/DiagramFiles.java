@@ -0,0 +1,245 @@
+package org.fulib.tools;
+
+import guru.nidi.graphviz.engine.Format;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes diagram files, but leaves files that already have the same content untouched.
+ * <p>
+ * Diagrams are rendered into a temporary directory of the system, under the same file name,
+ * so that the output directory is not cluttered if the process is killed while rendering.
+ * Only if the result differs from the existing file, it is moved over it, via a temporary file next to it if needed,
+ * so readers never see a partially written file.
+ * Otherwise, the existing file keeps its modification time, and build tools do not consider it changed.
+ */
+final class DiagramFiles
+{
+   // =============== Constants ===============
+
+   private static final int BUFFER_SIZE = 8192;
+
+   private static final String TEMP_PREFIX = "fulibTools-";
+   private static final String TEMP_SUFFIX = ".tmp";
+
+   // =============== Constructors ===============
+
+   private DiagramFiles()
+   {
+   }
+
+   // =============== Static Methods ===============
+
+   /**
+    * Writes the content to the file if it is different from the current content.
+    *
+    * @param file
+    *    the file to write
+    * @param content
+    *    the new content
+    *
+    * @return {@code true} if the file was written, {@code false} if it already had the same content
+    *
+    * @throws IOException
+    *    if the file cannot be written
+    */
+   static boolean write(File file, byte[] content) throws IOException
+   {
+      return writeIfChanged(file, tempFile -> Files.write(tempFile, content));
+   }
+
+   /**
+    * Renders a diagram, or copies it from the cache, and writes it to the file if its content changed.
+    *
+    * @param renderer
+    *    the renderer
+    * @param cache
+    *    the cache, or {@code null}
+    * @param dotString
+    *    the DOT description of the diagram
+    * @param format
+    *    the format to render
+    * @param scale
+    *    the scale factor
+    * @param file
+    *    the file to write
+    *
+    * @return {@code true} if the file was written,
+    * {@code false} if it already had the same content or the renderer did not produce it
+    *
+    * @throws IOException
+    *    if the renderer fails or the file cannot be written
+    */
+   static boolean render(DiagramRenderer renderer, DiagramCache cache, String dotString, Format format, double scale,
+      File file) throws IOException
+   {
+      final String key = cache != null ? DiagramCache.getKey(renderer.getName(), dotString, format, scale) : null;
+      return writeIfChanged(file, tempFile -> {
+         if (key != null && cache.copy(key, tempFile))
+         {
+            return;
+         }
+
+         renderer.render(dotString, format, scale, tempFile.toFile());
+         if (key != null && Files.isRegularFile(tempFile))
+         {
+            cache.add(key, tempFile);
+         }
+      });
+   }
+
+   private static boolean writeIfChanged(File file, Writing writing) throws IOException
+   {
+      final Path target = file.toPath().toAbsolutePath();
+      final Path directory = target.getParent();
+      Files.createDirectories(directory);
+
+      final Path tempDirectory = Files.createTempDirectory(TEMP_PREFIX);
+      try
+      {
+         writing.write(tempDirectory.resolve(target.getFileName()));
+
+         // usually just the one file, but e.g. Graphviz adds an extension to file names without one
+         boolean written = false;
+         for (final Path tempFile : list(tempDirectory))
+         {
+            written |= replaceIfChanged(tempFile, directory.resolve(tempFile.getFileName()));
+         }
+         return written;
+      }
+      finally
+      {
+         for (final Path leftover : list(tempDirectory))
+         {
+            Files.deleteIfExists(leftover);
+         }
+         Files.deleteIfExists(tempDirectory);
+      }
+   }
+
+   private static List<Path> list(Path directory) throws IOException
+   {
+      final List<Path> files = new ArrayList<>();
+      try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory))
+      {
+         for (final Path file : stream)
+         {
+            files.add(file);
+         }
+      }
+      return files;
+   }
+
+   private static boolean replaceIfChanged(Path source, Path target) throws IOException
+   {
+      if (!Files.isRegularFile(source))
+      {
+         return false;
+      }
+
+      if (Files.isRegularFile(target))
+      {
+         if (Files.size(source) == Files.size(target) && contentEquals(source, target))
+         {
+            return false;
+         }
+         if (target.getFileSystem().supportedFileAttributeViews().contains("posix"))
+         {
+            Files.setPosixFilePermissions(source, Files.getPosixFilePermissions(target));
+         }
+      }
+
+      try
+      {
+         Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+         return true;
+      }
+      catch (AtomicMoveNotSupportedException e)
+      {
+         // the temporary directory is on a different file system, so copy the file next to the target first
+      }
+
+      final Path copy = Files.createTempFile(target.getParent(), "." + target.getFileName() + ".", TEMP_SUFFIX);
+      try
+      {
+         Files.copy(source, copy, StandardCopyOption.REPLACE_EXISTING);
+         try
+         {
+            Files.move(copy, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+         }
+         catch (AtomicMoveNotSupportedException e)
+         {
+            Files.move(copy, target, StandardCopyOption.REPLACE_EXISTING);
+         }
+      }
+      finally
+      {
+         Files.deleteIfExists(copy);
+      }
+      return true;
+   }
+
+   private static boolean contentEquals(Path first, Path second) throws IOException
+   {
+      try (final InputStream firstInput = Files.newInputStream(first);
+           final InputStream secondInput = Files.newInputStream(second))
+      {
+         final byte[] firstBuffer = new byte[BUFFER_SIZE];
+         final byte[] secondBuffer = new byte[BUFFER_SIZE];
+         while (true)
+         {
+            final int count = readFully(firstInput, firstBuffer);
+            if (count != readFully(secondInput, secondBuffer))
+            {
+               return false;
+            }
+            if (count < BUFFER_SIZE)
+            {
+               // clear what is left of the previous block
+               Arrays.fill(firstBuffer, count, BUFFER_SIZE, (byte) 0);
+               Arrays.fill(secondBuffer, count, BUFFER_SIZE, (byte) 0);
+            }
+            if (!Arrays.equals(firstBuffer, secondBuffer))
+            {
+               return false;
+            }
+            if (count < BUFFER_SIZE)
+            {
+               return true;
+            }
+         }
+      }
+   }
+
+   /**
+    * @return the number of bytes read, which is less than the buffer size only at the end of the input
+    */
+   private static int readFully(InputStream input, byte[] buffer) throws IOException
+   {
+      int count = 0;
+      while (count < buffer.length)
+      {
+         final int read = input.read(buffer, count, buffer.length - count);
+         if (read < 0)
+         {
+            break;
+         }
+         count += read;
+      }
+      return count;
+   }
+
+   // =============== Classes ===============
+
+   @FunctionalInterface
+   private interface Writing
+   {
+      void write(Path tempFile) throws IOException;
+   }
+}
@@ -0,0 +1,102 @@
+package org.fulib.tools;
+
+import guru.nidi.graphviz.engine.Format;
+
+import java.util.Objects;
+
+/**
+ * An object diagram to be rendered by {@link ObjectDiagrams#dump(DiagramJob)} or
+ * {@link ObjectDiagrams#dumpAll(java.util.List)}.
+ * <p>
+ * Example:
+ * <pre><code>
+ *    final List&lt;DiagramJob&gt; jobs = new ArrayList&lt;&gt;();
+ *    jobs.add(DiagramJob.png("tmp/studyRight.png", studyRight));
+ *    jobs.add(DiagramJob.svg("tmp/alice.svg", alice));
+ *    FulibTools.objectDiagrams().dumpAll(jobs).forEach(CompletableFuture::join);
+ * </code></pre>
+ *
+ * @since 1.7
+ */
+public final class DiagramJob
+{
+   private final Format format;
+   private final String fileName;
+   private final Object[] objectList;
+
+   private DiagramJob(Format format, String fileName, Object[] objectList)
+   {
+      this.format = format;
+      this.fileName = Objects.requireNonNull(fileName, "fileName");
+      this.objectList = objectList.clone();
+   }
+
+   /**
+    * @param diagramFileName the file name in which the diagram should be saved
+    * @param objectList the list of objects to display
+    *
+    * @return a job that renders the diagram like {@link ObjectDiagrams#dumpPng(String, Object...)}
+    */
+   public static DiagramJob png(String diagramFileName, Object... objectList)
+   {
+      return new DiagramJob(Format.PNG, diagramFileName, objectList);
+   }
+
+   /**
+    * @param diagramFileName the file name in which the diagram should be saved
+    * @param objectList the list of objects to display
+    *
+    * @return a job that renders the diagram like {@link ObjectDiagrams#dumpSVG(String, Object...)}
+    */
+   public static DiagramJob svg(String diagramFileName, Object... objectList)
+   {
+      return new DiagramJob(Format.SVG_STANDALONE, diagramFileName, objectList);
+   }
+
+   /**
+    * @param diagramFileName the file name in which the DOT description should be saved
+    * @param objectList the list of objects to display
+    *
+    * @return a job that writes the DOT description of the diagram like
+    * {@link ObjectDiagrams#dumpDot(String, Object...)}
+    */
+   public static DiagramJob dot(String diagramFileName, Object... objectList)
+   {
+      return new DiagramJob(Format.DOT, diagramFileName, objectList);
+   }
+
+   /**
+    * @return the format of the diagram
+    */
+   public Format getFormat()
+   {
+      return this.format;
+   }
+
+   /**
+    * @return the file name in which the diagram should be saved
+    */
+   public String getFileName()
+   {
+      return this.fileName;
+   }
+
+   /**
+    * @return a copy of the list of objects to display
+    */
+   public Object[] getObjectList()
+   {
+      return this.objectList.clone();
+   }
+
+   Object[] objectList()
+   {
+      return this.objectList;
+   }
+
+   @Override
+   public String toString()
+   {
+      return this.fileName;
+   }
+}
@@ -0,0 +1,99 @@
+package org.fulib.tools;
+
+import guru.nidi.graphviz.engine.Format;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Turns the DOT description of a diagram into a file, e.g. a PNG or SVG image.
+ * <p>
+ * Example:
+ * <pre><code>
+ *    // CI only compares the DOT files, so skip the layout step
+ *    final ObjectDiagrams diagrams = FulibTools.objectDiagrams().withRenderer(DiagramRenderer.none());
+ *    diagrams.dumpDot("tmp/studyRight.dot", studyRight);
+ *    diagrams.dumpPng("tmp/studyRight.png", studyRight); // writes nothing
+ * </code></pre>
+ *
+ * @see ObjectDiagrams#setRenderer(DiagramRenderer)
+ * @since 1.7
+ */
+@FunctionalInterface
+public interface DiagramRenderer
+{
+   // =============== Static Methods ===============
+
+   /**
+    * @return a renderer that uses the Graphviz engine of graphviz-java on the {@linkplain GraphvizEngines shared
+    * engine threads}.
+    * This is the default.
+    */
+   static DiagramRenderer graphviz()
+   {
+      return DiagramRenderers.GRAPHVIZ;
+   }
+
+   /**
+    * Returns a renderer that runs an external Graphviz executable such as {@code dot} for each diagram.
+    * The scale factor is passed to it as the {@code dpi} graph attribute.
+    * Since each diagram is rendered by a separate process, this renderer can be used with more than one
+    * {@linkplain ObjectDiagrams#setRenderThreads(int) render thread}.
+    *
+    * @param executable
+    *    the name or path of the executable, e.g. {@code "dot"}
+    *
+    * @return a renderer that runs the executable
+    */
+   static DiagramRenderer executable(String executable)
+   {
+      return new DiagramRenderers.Executable(executable);
+   }
+
+   /**
+    * @return a renderer that does nothing, e.g. for test runs that only need the
+    * {@linkplain ObjectDiagrams#dumpDot(String, Object...) DOT files}
+    */
+   static DiagramRenderer none()
+   {
+      return DiagramRenderers.NONE;
+   }
+
+   // =============== Methods ===============
+
+   /**
+    * Renders a diagram.
+    * This method may be called from several threads at the same time.
+    *
+    * @param dotString
+    *    the DOT description of the diagram
+    * @param format
+    *    the format to render, e.g. {@link Format#PNG} or {@link Format#SVG_STANDALONE}
+    * @param scale
+    *    the scale factor, see {@link ObjectDiagrams#setScale(double)}
+    * @param file
+    *    the file to write, which has the name of the diagram file but is in a temporary directory.
+    *    The diagram file is only replaced with it if the content changed.
+    *
+    * @throws IOException
+    *    if the diagram could not be rendered or written
+    */
+   void render(String dotString, Format format, double scale, File file) throws IOException;
+
+   /**
+    * The name is part of the key of a diagram in a {@link DiagramCache},
+    * so that diagrams of one renderer are never copied in place of diagrams of another.
+    * Renderers with the same name must produce the same files for the same diagrams.
+    * <p>
+    * The default implementation returns the class name.
+    * Renderers whose output depends on their configuration should include it in the name,
+    * and lambda expressions should be replaced with named classes if the cache is kept across runs,
+    * since the class names of lambda expressions are not stable.
+    *
+    * @return the name of this renderer
+    */
+   default String getName()
+   {
+      return this.getClass().getName();
+   }
+}
@@ -0,0 +1,178 @@
+package org.fulib.tools;
+
+import guru.nidi.graphviz.engine.Format;
+import guru.nidi.graphviz.engine.Graphviz;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * The implementations of {@link DiagramRenderer}.
+ */
+final class DiagramRenderers
+{
+   // =============== Constants ===============
+
+   static final DiagramRenderer GRAPHVIZ = new Named("graphviz")
+   {
+      @Override
+      public void render(String dotString, Format format, double scale, File file) throws IOException
+      {
+         GraphvizEngines.render(() -> Graphviz.fromString(dotString).scale(scale).render(format).toFile(file));
+      }
+   };
+
+   static final DiagramRenderer NONE = new Named("none")
+   {
+      @Override
+      public void render(String dotString, Format format, double scale, File file)
+      {
+      }
+   };
+
+   // =============== Constructors ===============
+
+   private DiagramRenderers()
+   {
+   }
+
+   // =============== Classes ===============
+
+   private abstract static class Named implements DiagramRenderer
+   {
+      private final String name;
+
+      Named(String name)
+      {
+         this.name = name;
+      }
+
+      @Override
+      public String getName()
+      {
+         return this.name;
+      }
+
+      @Override
+      public String toString()
+      {
+         return this.name;
+      }
+   }
+
+   static final class Executable implements DiagramRenderer
+   {
+      private final String executable;
+
+      Executable(String executable)
+      {
+         this.executable = Objects.requireNonNull(executable, "executable");
+      }
+
+      @Override
+      public void render(String dotString, Format format, double scale, File file) throws IOException
+      {
+         final String type = getOutputType(format);
+         // Graphviz defaults to 72 dpi for SVG and 96 dpi for bitmaps
+         final String dpi = scale != 1 ? String.valueOf(("svg".equals(type) ? 72 : 96) * scale) : null;
+         final List<String> command = this.getCommand(type, dpi, file.getPath());
+
+         final File parent = file.getAbsoluteFile().getParentFile();
+         if (parent != null)
+         {
+            Files.createDirectories(parent.toPath());
+         }
+
+         final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+         IOException writeError = null;
+         try (final OutputStream input = process.getOutputStream())
+         {
+            input.write(dotString.getBytes(StandardCharsets.UTF_8));
+         }
+         catch (IOException e)
+         {
+            // the executable stopped reading, its output tells why
+            writeError = e;
+         }
+         final String output = readAll(process.getInputStream());
+
+         final int exitCode;
+         try
+         {
+            exitCode = process.waitFor();
+         }
+         catch (InterruptedException e)
+         {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for " + this.executable);
+         }
+
+         if (exitCode != 0)
+         {
+            throw new IOException(this.executable + " exited with code " + exitCode + ": " + output.trim(), writeError);
+         }
+         if (writeError != null)
+         {
+            throw writeError;
+         }
+      }
+
+      private List<String> getCommand(String type, String dpi, String output)
+      {
+         final List<String> command = new ArrayList<>();
+         command.add(this.executable);
+         command.add("-T" + type);
+         if (dpi != null)
+         {
+            command.add("-Gdpi=" + dpi);
+         }
+         command.add("-o" + output);
+         return command;
+      }
+
+      private static String getOutputType(Format format)
+      {
+         switch (format)
+         {
+         case SVG:
+         case SVG_STANDALONE:
+            return "svg";
+         default:
+            return format.name().toLowerCase(Locale.ROOT);
+         }
+      }
+
+      private static String readAll(InputStream input) throws IOException
+      {
+         final ByteArrayOutputStream output = new ByteArrayOutputStream();
+         final byte[] buffer = new byte[4096];
+         int count;
+         while ((count = input.read(buffer)) >= 0)
+         {
+            output.write(buffer, 0, count);
+         }
+         return new String(output.toByteArray(), StandardCharsets.UTF_8);
+      }
+
+      /**
+       * @return the command line with placeholders for the arguments that differ between diagrams
+       */
+      @Override
+      public String getName()
+      {
+         return String.join(" ", this.getCommand("<type>", "<dpi>", "<file>"));
+      }
+
+      @Override
+      public String toString()
+      {
+         return this.executable;
+      }
+   }
+}
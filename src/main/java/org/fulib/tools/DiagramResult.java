@@ -0,0 +1,55 @@
+package org.fulib.tools;
+
+/**
+ * The outcome of a diagram rendered by {@link ObjectDiagrams#dump(DiagramJob)} or
+ * {@link ObjectDiagrams#dumpAll(java.util.List)}.
+ * <p>
+ * Example:
+ * <pre><code>
+ *    final DiagramResult result = FulibTools.objectDiagrams().dump(DiagramJob.svg("tmp/studyRight.svg", studyRight));
+ *    if (result.isWritten())
+ *    {
+ *       System.out.println("updated " + result.getFileName());
+ *    }
+ * </code></pre>
+ *
+ * @since 1.7
+ */
+public final class DiagramResult
+{
+   private final String fileName;
+   private final boolean written;
+
+   DiagramResult(String fileName, boolean written)
+   {
+      this.fileName = fileName;
+      this.written = written;
+   }
+
+   /**
+    * @return the file name in which the diagram was saved (= {@link DiagramJob#getFileName()})
+    */
+   public String getFileName()
+   {
+      return this.fileName;
+   }
+
+   /**
+    * Diagram files that already have the same content are not written again,
+    * so that build tools do not consider them changed.
+    *
+    * @return {@code true} if the file was written, because it did not exist or its content changed,
+    * {@code false} if it already had the same content or the
+    * {@linkplain ObjectDiagrams#setRenderer(DiagramRenderer) renderer} did not produce it
+    */
+   public boolean isWritten()
+   {
+      return this.written;
+   }
+
+   @Override
+   public String toString()
+   {
+      return this.fileName;
+   }
+}
@@ -0,0 +1,385 @@
+package org.fulib.tools;
+
+import org.fulib.tools.fragments.ChangeDetector;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A persistent index that remembers which fragments each file defines and which fragments it inserts,
+ * so that unchanged files do not have to be read again by {@link CodeFragments}.
+ * <p>
+ * Files are identified by their absolute path and considered unchanged if their size and modification time match
+ * the recorded values.
+ * If they don't, but the content checksum is still the same, the recorded information remains valid.
+ * Checksums are computed by a {@link ChangeDetector}, whose name is stored in the index.
+ * <p>
+ * A file that was modified shortly before it was recorded may have been modified again without changing its size or
+ * modification time, because file systems store modification times with limited precision.
+ * Such entries are marked as racy and always verified with the checksum, until a later run records the file again
+ * with an old enough modification time.
+ */
+class FragmentIndex
+{
+   // =============== Constants ===============
+
+   private static final int MAGIC = 0x46524958; // FRIX
+   private static final int VERSION = 4;
+
+   /**
+    * The coarsest precision of file modification times on common file systems, in milliseconds (FAT has 2 seconds).
+    */
+   private static final long MTIME_GRANULARITY = 2000;
+
+   // =============== Fields ===============
+
+   private final Path file;
+   private final ChangeDetector changeDetector;
+   private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+   private volatile boolean modified;
+   private volatile long runStart = System.currentTimeMillis();
+
+   // =============== Constructors ===============
+
+   private FragmentIndex(Path file, ChangeDetector changeDetector)
+   {
+      this.file = file;
+      this.changeDetector = changeDetector;
+   }
+
+   // =============== Static Methods ===============
+
+   /**
+    * Reads the index from the given file.
+    * If the file does not exist, cannot be read or was written with a different change detector,
+    * an empty index is returned.
+    *
+    * @param file
+    *    the index file
+    * @param changeDetector
+    *    the change detector used to compute the checksums
+    *
+    * @return the index
+    */
+   static FragmentIndex read(Path file, ChangeDetector changeDetector)
+   {
+      final FragmentIndex index = new FragmentIndex(file, changeDetector);
+      if (!Files.exists(file))
+      {
+         return index;
+      }
+
+      try (final DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+      {
+         if (input.readInt() != MAGIC || input.readInt() != VERSION
+             || !input.readUTF().equals(changeDetector.getName()))
+         {
+            // unknown format, start from scratch
+            return index;
+         }
+
+         final int entryCount = input.readInt();
+         for (int i = 0; i < entryCount; i++)
+         {
+            final String path = input.readUTF();
+            index.entries.put(path, readEntry(input));
+         }
+      }
+      catch (IOException e)
+      {
+         Logger.getGlobal().log(Level.WARNING, "fragment index read problem, ignoring " + file, e);
+         index.entries.clear();
+      }
+      return index;
+   }
+
+   private static Entry readEntry(DataInputStream input) throws IOException
+   {
+      final long size = input.readLong();
+      final long lastModified = input.readLong();
+      final long hash = input.readLong();
+      final boolean racy = input.readBoolean();
+
+      final int fragmentCount = input.readInt();
+      List<Map.Entry<String, String>> fragments = null;
+      if (fragmentCount >= 0)
+      {
+         fragments = new ArrayList<>(fragmentCount);
+         for (int i = 0; i < fragmentCount; i++)
+         {
+            final String key = input.readUTF();
+            final String content = new String(readBytes(input), StandardCharsets.UTF_8);
+            fragments.add(new AbstractMap.SimpleImmutableEntry<>(key, content));
+         }
+      }
+
+      final int insertCount = input.readInt();
+      Map<String, Long> inserts = null;
+      List<FragmentInsertion> insertions = null;
+      if (insertCount >= 0)
+      {
+         inserts = new LinkedHashMap<>();
+         for (int i = 0; i < insertCount; i++)
+         {
+            final String key = input.readUTF();
+            inserts.put(key, input.readLong());
+         }
+
+         final int insertionCount = input.readInt();
+         insertions = new ArrayList<>(insertionCount);
+         for (int i = 0; i < insertionCount; i++)
+         {
+            final String key = input.readUTF();
+            final int startLine = input.readInt();
+            final int endLine = input.readInt();
+            insertions.add(new FragmentInsertion(key, startLine, endLine));
+         }
+      }
+
+      return new Entry(size, lastModified, hash, racy, fragments, inserts, insertions);
+   }
+
+   private static byte[] readBytes(DataInputStream input) throws IOException
+   {
+      final byte[] bytes = new byte[input.readInt()];
+      input.readFully(bytes);
+      return bytes;
+   }
+
+   private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException
+   {
+      output.writeInt(bytes.length);
+      output.write(bytes);
+   }
+
+   private static String getKey(Path file)
+   {
+      return file.toAbsolutePath().normalize().toString();
+   }
+
+   // =============== Methods ===============
+
+   /**
+    * Marks the start of a run.
+    * Must be called before the attributes of the files recorded during the run are read,
+    * so that entries of files modified shortly before can be {@linkplain Entry#racy marked as racy}.
+    */
+   void startRun()
+   {
+      this.runStart = System.currentTimeMillis();
+   }
+
+   /**
+    * @param file
+    *    the file
+    *
+    * @return the entry for the given file, or {@code null} if there is none
+    */
+   Entry get(Path file)
+   {
+      return this.entries.get(getKey(file));
+   }
+
+   /**
+    * @param file
+    *    the file
+    * @param attributes
+    *    the current attributes of the file
+    *
+    * @return the entry for the given file if its size and modification time match and it is not racy,
+    * or {@code null} otherwise
+    */
+   Entry getUnchanged(Path file, BasicFileAttributes attributes)
+   {
+      final Entry entry = this.get(file);
+      if (entry == null || entry.racy || entry.size != attributes.size()
+          || entry.lastModified != attributes.lastModifiedTime().toMillis())
+      {
+         return null;
+      }
+      return entry;
+   }
+
+   /**
+    * @param file
+    *    the file
+    * @param entry
+    *    the entry, whose attributes must have been read after the {@linkplain #startRun() start of the current run}
+    */
+   void put(Path file, Entry entry)
+   {
+      final boolean racy = entry.lastModified >= this.runStart - MTIME_GRANULARITY;
+      this.entries.put(getKey(file), racy == entry.racy ? entry : entry.withRacy(racy));
+      this.modified = true;
+   }
+
+   void remove(Path file)
+   {
+      if (this.entries.remove(getKey(file)) != null)
+      {
+         this.modified = true;
+      }
+   }
+
+   /**
+    * Writes the index to its file if it was modified since it was read.
+    * Entries for files that no longer exist are dropped.
+    */
+   void save()
+   {
+      if (!this.modified)
+      {
+         return;
+      }
+
+      try
+      {
+         final Path parent = this.file.toAbsolutePath().getParent();
+         if (parent != null)
+         {
+            Files.createDirectories(parent);
+         }
+
+         final Path tempFile = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+         try (final DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(tempFile))))
+         {
+            final List<Map.Entry<String, Entry>> existing = new ArrayList<>();
+            for (Map.Entry<String, Entry> mapEntry : this.entries.entrySet())
+            {
+               if (Files.exists(Paths.get(mapEntry.getKey())))
+               {
+                  existing.add(mapEntry);
+               }
+            }
+
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(this.changeDetector.getName());
+            output.writeInt(existing.size());
+            for (Map.Entry<String, Entry> mapEntry : existing)
+            {
+               output.writeUTF(mapEntry.getKey());
+               mapEntry.getValue().write(output);
+            }
+         }
+         Files.move(tempFile, this.file, StandardCopyOption.REPLACE_EXISTING);
+         this.modified = false;
+      }
+      catch (IOException e)
+      {
+         Logger.getGlobal().log(Level.WARNING, "fragment index write problem", e);
+      }
+   }
+
+   // =============== Classes ===============
+
+   /**
+    * The recorded state of a single file.
+    * Entries are immutable and replaced as a whole when a file changes.
+    */
+   static final class Entry
+   {
+      final long size;
+      final long lastModified;
+      final long hash;
+
+      /**
+       * Whether the file was modified so shortly before its attributes were read that it may have been modified again
+       * without a visible change.
+       * Racy entries are never {@linkplain #getUnchanged(Path, BasicFileAttributes) unchanged}.
+       */
+      final boolean racy;
+
+      /**
+       * The fragments defined in the file, in order, or {@code null} if unknown.
+       */
+      final List<Map.Entry<String, String>> fragments;
+
+      /**
+       * The checksums of the fragments inserted into the file, by key, or {@code null} if unknown.
+       */
+      final Map<String, Long> inserts;
+
+      /**
+       * The insertion points in the file, or {@code null} if unknown.
+       * Known if and only if {@link #inserts} is known.
+       */
+      final List<FragmentInsertion> insertions;
+
+      Entry(long size, long lastModified, long hash, boolean racy, List<Map.Entry<String, String>> fragments,
+         Map<String, Long> inserts, List<FragmentInsertion> insertions)
+      {
+         this.size = size;
+         this.lastModified = lastModified;
+         this.hash = hash;
+         this.racy = racy;
+         this.fragments = fragments;
+         this.inserts = inserts;
+         this.insertions = insertions;
+      }
+
+      Entry(BasicFileAttributes attributes, long hash, List<Map.Entry<String, String>> fragments,
+         Map<String, Long> inserts, List<FragmentInsertion> insertions)
+      {
+         this(attributes.size(), attributes.lastModifiedTime().toMillis(), hash, false, fragments, inserts,
+              insertions);
+      }
+
+      private Entry withRacy(boolean racy)
+      {
+         return new Entry(this.size, this.lastModified, this.hash, racy, this.fragments, this.inserts,
+                          this.insertions);
+      }
+
+      private void write(DataOutputStream output) throws IOException
+      {
+         output.writeLong(this.size);
+         output.writeLong(this.lastModified);
+         output.writeLong(this.hash);
+         output.writeBoolean(this.racy);
+
+         if (this.fragments == null)
+         {
+            output.writeInt(-1);
+         }
+         else
+         {
+            output.writeInt(this.fragments.size());
+            for (Map.Entry<String, String> fragment : this.fragments)
+            {
+               output.writeUTF(fragment.getKey());
+               writeBytes(output, fragment.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+         }
+
+         if (this.inserts == null)
+         {
+            output.writeInt(-1);
+         }
+         else
+         {
+            output.writeInt(this.inserts.size());
+            for (Map.Entry<String, Long> insert : this.inserts.entrySet())
+            {
+               output.writeUTF(insert.getKey());
+               output.writeLong(insert.getValue());
+            }
+
+            output.writeInt(this.insertions.size());
+            for (FragmentInsertion insertion : this.insertions)
+            {
+               output.writeUTF(insertion.key);
+               output.writeInt(insertion.startLine);
+               output.writeInt(insertion.endLine);
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,38 @@
+package org.fulib.tools;
+
+/**
+ * The location of a single {@code insert_code_fragment} block within a file.
+ */
+final class FragmentInsertion
+{
+   // =============== Fields ===============
+
+   final String key;
+   final int startLine;
+   final int endLine;
+
+   // =============== Constructors ===============
+
+   /**
+    * @param key
+    *    the key of the inserted fragment
+    * @param startLine
+    *    the 1-based line number of the {@code insert_code_fragment} line
+    * @param endLine
+    *    the 1-based line number of the {@code end_code_fragment} line
+    */
+   FragmentInsertion(String key, int startLine, int endLine)
+   {
+      this.key = key;
+      this.startLine = startLine;
+      this.endLine = endLine;
+   }
+
+   // =============== Methods ===============
+
+   @Override
+   public String toString()
+   {
+      return this.key + "@" + this.startLine + "-" + this.endLine;
+   }
+}
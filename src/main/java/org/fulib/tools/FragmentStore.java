@@ -0,0 +1,252 @@
+package org.fulib.tools;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.Checksum;
+
+/**
+ * Stores fragments by key in insertion order, sharing the content of fragments with identical text.
+ * <p>
+ * Generated files often define many fragments with the same text, which are only held once.
+ * Fragments with at least {@link #COMPACT_LENGTH} characters are held as UTF-8 bytes,
+ * which is half the size of a {@code char[]} for ASCII text,
+ * and are only decoded when their text is requested.
+ * <p>
+ * This class is not thread-safe, but concurrent reads are fine as long as there are no concurrent writes.
+ */
+final class FragmentStore
+{
+   // =============== Constants ===============
+
+   static final int COMPACT_LENGTH = 512;
+
+   // =============== Fields ===============
+
+   private final Map<String, Content> fragments = new LinkedHashMap<>();
+
+   /**
+    * The distinct contents, mapped to themselves.
+    */
+   private final Map<Content, Content> pool = new HashMap<>();
+
+   private final Map<String, String> view = new View();
+
+   // =============== Properties ===============
+
+   /**
+    * @return the number of distinct contents
+    */
+   int getDistinctCount()
+   {
+      return this.pool.size();
+   }
+
+   // =============== Methods ===============
+
+   boolean containsKey(String key)
+   {
+      return this.fragments.containsKey(key);
+   }
+
+   /**
+    * @param key
+    *    the fragment key
+    *
+    * @return the content of the fragment, or {@code null} if there is none.
+    * The same instance is returned until the fragment is changed.
+    */
+   Content get(String key)
+   {
+      return this.fragments.get(key);
+   }
+
+   /**
+    * @param key
+    *    the fragment key
+    * @param text
+    *    the fragment text
+    *
+    * @return {@code true} if the fragment did not exist or had a different text
+    */
+   boolean put(String key, String text)
+   {
+      final Content newContent = new Content(text);
+      final Content oldContent = this.fragments.get(key);
+      if (newContent.equals(oldContent))
+      {
+         return false;
+      }
+
+      Content shared = this.pool.get(newContent);
+      if (shared == null)
+      {
+         shared = newContent;
+         this.pool.put(shared, shared);
+      }
+      shared.references++;
+      this.fragments.put(key, shared);
+
+      this.release(oldContent);
+      return true;
+   }
+
+   /**
+    * @param key
+    *    the fragment key
+    *
+    * @return {@code true} if the fragment existed
+    */
+   boolean remove(String key)
+   {
+      final Content oldContent = this.fragments.remove(key);
+      this.release(oldContent);
+      return oldContent != null;
+   }
+
+   private void release(Content content)
+   {
+      if (content != null && --content.references == 0)
+      {
+         this.pool.remove(content);
+      }
+   }
+
+   /**
+    * @return an unmodifiable view of the fragments as a map from keys to texts
+    */
+   Map<String, String> asMap()
+   {
+      return this.view;
+   }
+
+   // =============== Classes ===============
+
+   /**
+    * The text of a fragment, either as a string or as UTF-8 bytes.
+    */
+   static final class Content
+   {
+      private final String text;
+      private final byte[] bytes;
+      private final int hash;
+
+      private int references;
+
+      Content(String text)
+      {
+         this.hash = text.hashCode();
+         if (text.length() >= COMPACT_LENGTH)
+         {
+            this.text = null;
+            this.bytes = text.getBytes(StandardCharsets.UTF_8);
+         }
+         else
+         {
+            this.text = text;
+            this.bytes = null;
+         }
+      }
+
+      /**
+       * Updates the checksum with the UTF-8 bytes of the text.
+       *
+       * @param checksum
+       *    the checksum
+       */
+      void update(Checksum checksum)
+      {
+         final byte[] bytes = this.bytes != null ? this.bytes : this.text.getBytes(StandardCharsets.UTF_8);
+         checksum.update(bytes, 0, bytes.length);
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj)
+         {
+            return true;
+         }
+         if (!(obj instanceof Content))
+         {
+            return false;
+         }
+
+         // the representation only depends on the text, so equal texts have the same representation
+         final Content other = (Content) obj;
+         return this.hash == other.hash && (this.text != null ?
+            this.text.equals(other.text) :
+            Arrays.equals(this.bytes, other.bytes));
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return this.hash;
+      }
+
+      /**
+       * @return the text, which is decoded each time for compact contents
+       */
+      @Override
+      public String toString()
+      {
+         return this.text != null ? this.text : new String(this.bytes, StandardCharsets.UTF_8);
+      }
+   }
+
+   private final class View extends AbstractMap<String, String>
+   {
+      @Override
+      public int size()
+      {
+         return fragments.size();
+      }
+
+      @Override
+      public boolean containsKey(Object key)
+      {
+         return fragments.containsKey(key);
+      }
+
+      @Override
+      public String get(Object key)
+      {
+         final Content content = fragments.get(key);
+         return content != null ? content.toString() : null;
+      }
+
+      @Override
+      public Set<Entry<String, String>> entrySet()
+      {
+         return new AbstractSet<Entry<String, String>>()
+         {
+            @Override
+            public int size()
+            {
+               return fragments.size();
+            }
+
+            @Override
+            public Iterator<Entry<String, String>> iterator()
+            {
+               final Iterator<Entry<String, Content>> iterator = fragments.entrySet().iterator();
+               return new Iterator<Entry<String, String>>()
+               {
+                  @Override
+                  public boolean hasNext()
+                  {
+                     return iterator.hasNext();
+                  }
+
+                  @Override
+                  public Entry<String, String> next()
+                  {
+                     final Entry<String, Content> entry = iterator.next();
+                     return new SimpleImmutableEntry<>(entry.getKey(), entry.getValue().toString());
+                  }
+               };
+            }
+         };
+      }
+   }
+}
@@ -0,0 +1,304 @@
+package org.fulib.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches folders for changes and lets {@link CodeFragments} process the changed files.
+ * <p>
+ * Events are collected until no new events arrive for the debounce time,
+ * so that saving many files at once, or saving a file in several steps, results in a single update.
+ * Files written by {@link CodeFragments} itself are recognized by their size and modification time and ignored.
+ */
+final class FragmentWatcher implements Closeable, Runnable
+{
+   // =============== Fields ===============
+
+   private final CodeFragments codeFragments;
+   private final String[] folders;
+   private final long debounceMillis;
+
+   private final WatchService watchService;
+   private final Map<WatchKey, Path> roots = new HashMap<>();
+   private final Map<Path, BasicFileAttributes> ownWrites = new HashMap<>();
+
+   private final Thread thread;
+
+   // =============== Constructors ===============
+
+   FragmentWatcher(CodeFragments codeFragments, String[] folders, long debounceMillis) throws IOException
+   {
+      this.codeFragments = codeFragments;
+      this.folders = folders;
+      this.debounceMillis = debounceMillis;
+      this.watchService = FileSystems.getDefault().newWatchService();
+
+      try
+      {
+         for (String folder : folders)
+         {
+            final Path root = Paths.get(folder).toAbsolutePath().normalize();
+            if (Files.isDirectory(root))
+            {
+               this.registerAll(root, root, null);
+            }
+            else if (Files.exists(root) && root.getParent() != null)
+            {
+               // a single file, watch the directory that contains it
+               this.roots.put(this.register(root.getParent()), root);
+            }
+         }
+      }
+      catch (IOException e)
+      {
+         this.watchService.close();
+         throw e;
+      }
+
+      this.thread = new Thread(this, "CodeFragments watcher");
+      this.thread.setDaemon(true);
+   }
+
+   // =============== Methods ===============
+
+   void start()
+   {
+      this.thread.start();
+   }
+
+   private WatchKey register(Path dir) throws IOException
+   {
+      return dir.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                          StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+   }
+
+   /**
+    * Registers the directory and all its subdirectories that are not excluded.
+    *
+    * @param files
+    *    a collection to add the files in the directories to, or {@code null}
+    */
+   private void registerAll(Path root, Path dir, Collection<Path> files) throws IOException
+   {
+      Files.walkFileTree(dir, new SimpleFileVisitor<Path>()
+      {
+         @Override
+         public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException
+         {
+            if (codeFragments.skipsDirectory(root, subDir))
+            {
+               return FileVisitResult.SKIP_SUBTREE;
+            }
+            roots.put(register(subDir), root);
+            return FileVisitResult.CONTINUE;
+         }
+
+         @Override
+         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+         {
+            if (files != null && codeFragments.acceptsFile(root, file))
+            {
+               files.add(file);
+            }
+            return FileVisitResult.CONTINUE;
+         }
+      });
+   }
+
+   @Override
+   public void run()
+   {
+      try
+      {
+         while (true)
+         {
+            final Set<Path> changed = new LinkedHashSet<>();
+            final Set<Path> deleted = new LinkedHashSet<>();
+
+            boolean overflow = this.collect(this.watchService.take(), changed, deleted);
+
+            // wait until things have calmed down
+            WatchKey key;
+            while ((key = this.watchService.poll(this.debounceMillis, TimeUnit.MILLISECONDS)) != null)
+            {
+               overflow |= this.collect(key, changed, deleted);
+            }
+
+            this.process(overflow, changed, deleted);
+         }
+      }
+      catch (ClosedWatchServiceException | InterruptedException ignored)
+      {
+         // closed
+      }
+   }
+
+   /**
+    * @return {@code true} if events were lost
+    */
+   private boolean collect(WatchKey key, Set<Path> changed, Set<Path> deleted)
+   {
+      final Path dir = (Path) key.watchable();
+      final Path root = this.roots.get(key);
+      boolean overflow = false;
+      if (root == null)
+      {
+         // no longer watched
+         key.cancel();
+         return false;
+      }
+
+      for (WatchEvent<?> event : key.pollEvents())
+      {
+         if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+         {
+            overflow = true;
+            continue;
+         }
+
+         final Path path = dir.resolve((Path) event.context());
+         if (!path.startsWith(root))
+         {
+            // next to a single watched file
+            continue;
+         }
+
+         if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE)
+         {
+            changed.remove(path);
+            deleted.add(path);
+            continue;
+         }
+
+         deleted.remove(path);
+         if (Files.isDirectory(path))
+         {
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+            {
+               try
+               {
+                  // files may have been created before the directory was registered
+                  this.registerAll(root, path, changed);
+               }
+               catch (IOException e)
+               {
+                  Logger.getGlobal().log(Level.WARNING, "directory watch problem", e);
+               }
+            }
+         }
+         else if (this.codeFragments.acceptsFile(root, path))
+         {
+            changed.add(path);
+         }
+      }
+
+      if (!key.reset())
+      {
+         // the directory is gone
+         this.roots.remove(key);
+      }
+      return overflow;
+   }
+
+   /**
+    * @param overflow
+    *    whether events were lost, in which case all folders are processed again
+    * @param changed
+    *    the files that were created or modified
+    * @param deleted
+    *    the files and directories that were deleted
+    */
+   void process(boolean overflow, Set<Path> changed, Set<Path> deleted)
+   {
+      changed.removeIf(this::isOwnWrite);
+
+      if (!overflow && changed.isEmpty() && deleted.isEmpty())
+      {
+         return;
+      }
+
+      final List<Path> written;
+      synchronized (this.codeFragments)
+      {
+         try
+         {
+            if (overflow)
+            {
+               // events were lost, start over; like in the initial update, all fragments are loaded
+               this.ownWrites.clear();
+               this.codeFragments.update(FileSystems.getDefault(), this.folders, false);
+               return;
+            }
+            written = this.codeFragments.refresh(changed, deleted);
+         }
+         catch (RuntimeException e)
+         {
+            // e.g. an unterminated fragment; keep watching, the author will fix it
+            Logger.getGlobal().log(Level.WARNING, "fragment update problem", e);
+            return;
+         }
+      }
+
+      for (Path file : written)
+      {
+         try
+         {
+            this.ownWrites.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+         }
+         catch (IOException ignored)
+         {
+            // deleted in the meantime
+         }
+      }
+   }
+
+   private boolean isOwnWrite(Path file)
+   {
+      final BasicFileAttributes written = this.ownWrites.remove(file);
+      if (written == null)
+      {
+         return false;
+      }
+
+      try
+      {
+         final BasicFileAttributes current = Files.readAttributes(file, BasicFileAttributes.class);
+         return current.size() == written.size() && current.lastModifiedTime().equals(written.lastModifiedTime());
+      }
+      catch (IOException e)
+      {
+         return false;
+      }
+   }
+
+   /**
+    * Stops watching and waits until the changes that are currently being processed are written.
+    *
+    * @throws IOException
+    *    if closing the watch service fails
+    */
+   @Override
+   public void close() throws IOException
+   {
+      this.watchService.close();
+      if (Thread.currentThread() == this.thread)
+      {
+         return;
+      }
+
+      try
+      {
+         this.thread.join();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+}
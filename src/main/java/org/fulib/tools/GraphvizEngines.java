@@ -0,0 +1,182 @@
+package org.fulib.tools;
+
+import guru.nidi.graphviz.engine.Format;
+import guru.nidi.graphviz.engine.Graphviz;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Manages the Graphviz engine that renders the diagrams of {@link ObjectDiagrams}, {@link ClassDiagrams} and
+ * {@link ScenarioDiagrams}.
+ * <p>
+ * Initializing the JavaScript engine of graphviz-java takes several seconds,
+ * and some engines are bound to the thread that initialized them.
+ * Thus, all diagrams are rendered on a pool of background threads that keep their engines warm for the lifetime of the
+ * JVM, and {@link #warmUp()} initializes the engine on one of them before the first diagram is needed.
+ * <p>
+ * By default, there is a single engine thread, so diagrams from all callers are rendered one after another.
+ * {@linkplain #setThreads(int) More threads} render diagrams in parallel,
+ * at the cost of initializing the JavaScript engine once per thread.
+ * The {@linkplain ObjectDiagrams#setRenderThreads(int) render threads} of {@code ObjectDiagrams.dumpAll}
+ * share these engine threads with all other callers and do not add to them.
+ *
+ * @see org.fulib.FulibTools#warmUp()
+ * @since 1.7
+ */
+public final class GraphvizEngines
+{
+   // =============== Static Fields ===============
+
+   private static final String WARM_UP_GRAPH = "graph { a -- b }";
+
+   private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+   private static final ThreadPoolExecutor ENGINE_EXECUTOR = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                                                                    new LinkedBlockingQueue<>(),
+                                                                                    EngineThread::new);
+
+   private static CompletableFuture<Duration> warmUp;
+
+   // =============== Constructors ===============
+
+   private GraphvizEngines()
+   {
+   }
+
+   // =============== Static Methods ===============
+
+   /**
+    * @return the number of engine threads, i.e. the maximum number of diagrams that are rendered at the same time
+    * with the Graphviz engine of graphviz-java
+    */
+   public static int getThreads()
+   {
+      return ENGINE_EXECUTOR.getMaximumPoolSize();
+   }
+
+   /**
+    * Sets the number of engine threads, i.e. the maximum number of diagrams that are rendered at the same time
+    * with the Graphviz engine of graphviz-java.
+    * Default is {@code 1}.
+    * Fewer threads take effect once the surplus threads are idle.
+    *
+    * @param threads
+    *    the number of engine threads
+    *
+    * @throws IllegalArgumentException
+    *    if {@code threads} is less than {@code 1}
+    */
+   public static synchronized void setThreads(int threads)
+   {
+      if (threads < 1)
+      {
+         throw new IllegalArgumentException("threads must be at least 1, but was " + threads);
+      }
+
+      // the core size must never exceed the maximum size
+      if (threads > ENGINE_EXECUTOR.getMaximumPoolSize())
+      {
+         ENGINE_EXECUTOR.setMaximumPoolSize(threads);
+         ENGINE_EXECUTOR.setCorePoolSize(threads);
+      }
+      else
+      {
+         ENGINE_EXECUTOR.setCorePoolSize(threads);
+         ENGINE_EXECUTOR.setMaximumPoolSize(threads);
+      }
+   }
+
+   /**
+    * Starts initializing the Graphviz engine in the background, unless that already happened.
+    * Diagrams that are rendered in the meantime wait for the initialization to finish.
+    *
+    * @return a future that completes with the time the initialization took,
+    * or exceptionally if no Graphviz engine is available.
+    * Calling this method again returns the same future, unless the initialization failed.
+    */
+   public static synchronized CompletableFuture<Duration> warmUp()
+   {
+      if (warmUp == null || warmUp.isCompletedExceptionally())
+      {
+         warmUp = CompletableFuture.supplyAsync(() -> {
+            final long start = System.nanoTime();
+            Graphviz.fromString(WARM_UP_GRAPH).render(Format.SVG).toString();
+            return Duration.ofNanos(System.nanoTime() - start);
+         }, ENGINE_EXECUTOR);
+      }
+      return warmUp;
+   }
+
+   /**
+    * Runs the rendering on an engine thread and waits for it to finish.
+    * When called on an engine thread itself, the rendering runs directly.
+    *
+    * @param rendering
+    *    the rendering
+    *
+    * @throws IOException
+    *    if the rendering fails to write the diagram or the calling thread is interrupted
+    */
+   static void render(Rendering rendering) throws IOException
+   {
+      if (Thread.currentThread() instanceof EngineThread)
+      {
+         rendering.render();
+         return;
+      }
+
+      final Future<?> future = ENGINE_EXECUTOR.submit(() -> {
+         rendering.render();
+         return null;
+      });
+      try
+      {
+         future.get();
+      }
+      catch (InterruptedException e)
+      {
+         future.cancel(true);
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("interrupted while rendering");
+      }
+      catch (ExecutionException e)
+      {
+         // rethrow as if the rendering ran on this thread
+         final Throwable cause = e.getCause();
+         if (cause instanceof IOException)
+         {
+            throw (IOException) cause;
+         }
+         if (cause instanceof RuntimeException)
+         {
+            throw (RuntimeException) cause;
+         }
+         if (cause instanceof Error)
+         {
+            throw (Error) cause;
+         }
+         throw new IOException(cause);
+      }
+   }
+
+   // =============== Classes ===============
+
+   @FunctionalInterface
+   interface Rendering
+   {
+      void render() throws IOException;
+   }
+
+   private static final class EngineThread extends Thread
+   {
+      EngineThread(Runnable runnable)
+      {
+         super(runnable, "fulibTools-graphviz-" + THREAD_NUMBER.incrementAndGet());
+         this.setDaemon(true);
+      }
+   }
+}
@@ -0,0 +1,178 @@
+package org.fulib.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed insertion start marker of the form
+ * {@code <indent><!-- insert_code_fragment: <key> | <pipe>[:<arg>] | ... -->}.
+ * <p>
+ * The marker is parsed by hand rather than with a regular expression,
+ * because a regular expression cannot capture a variable number of pipes.
+ */
+final class InsertionHeader
+{
+   // =============== Constants ===============
+
+   static final String START = "<!-- insert_code_fragment: ";
+   static final String END = "<!-- end_code_fragment:";
+   private static final String CLOSE = "-->";
+
+   // =============== Fields ===============
+
+   final String indent;
+   final String key;
+
+   /**
+    * The pipe arguments of the form {@code <pipeName>} or {@code <pipeName>:<args>}, in the order they are applied.
+    */
+   final List<String> pipeArgs;
+
+   /**
+    * The pipe arguments joined with {@code |}, which identifies the pipe chain.
+    */
+   final String pipeChain;
+
+   // =============== Constructors ===============
+
+   private InsertionHeader(String indent, String key, List<String> pipeArgs)
+   {
+      this.indent = indent;
+      this.key = key;
+      this.pipeArgs = pipeArgs;
+      this.pipeChain = String.join("|", pipeArgs);
+   }
+
+   // =============== Static Methods ===============
+
+   /**
+    * @param line
+    *    the line to parse
+    * @param indentChars
+    *    the characters that may precede the marker in addition to whitespace
+    *
+    * @return the parsed marker, or {@code null} if the line is not an insertion start marker
+    */
+   static InsertionHeader parse(String line, String indentChars)
+   {
+      final int start = markerStart(line, START, indentChars);
+      if (start < 0)
+      {
+         return null;
+      }
+
+      final int length = line.length();
+      int pos = start + START.length();
+
+      final int keyStart = pos;
+      while (pos < length && isKeyChar(line.charAt(pos)))
+      {
+         pos++;
+      }
+      if (pos == keyStart)
+      {
+         return null;
+      }
+      final String key = line.substring(keyStart, pos);
+
+      List<String> pipeArgs = Collections.emptyList();
+      while (true)
+      {
+         pos = skipWhitespace(line, pos);
+         if (line.startsWith(CLOSE, pos))
+         {
+            return skipWhitespace(line, pos + CLOSE.length()) == length ?
+               new InsertionHeader(line.substring(0, start), key, pipeArgs) :
+               null;
+         }
+         if (pos >= length || line.charAt(pos) != '|')
+         {
+            return null;
+         }
+
+         pos = skipWhitespace(line, pos + 1);
+         if (pos >= length || !isWordChar(line.charAt(pos)))
+         {
+            return null;
+         }
+
+         final int argStart = pos;
+         while (pos < length && !isWhitespace(line.charAt(pos)) && line.charAt(pos) != '|')
+         {
+            pos++;
+         }
+
+         // the closing --> may directly follow the argument
+         int argEnd = pos;
+         if (line.startsWith(CLOSE, pos - CLOSE.length()) && skipWhitespace(line, pos) == length
+             && pos - CLOSE.length() > argStart)
+         {
+            argEnd = pos - CLOSE.length();
+            pos = argEnd;
+         }
+
+         if (pipeArgs.isEmpty())
+         {
+            pipeArgs = new ArrayList<>();
+         }
+         pipeArgs.add(line.substring(argStart, argEnd));
+      }
+   }
+
+   /**
+    * @param line
+    *    the line to check
+    * @param indentChars
+    *    the characters that may precede the marker in addition to whitespace
+    *
+    * @return whether the line is an insertion end marker
+    */
+   static boolean isEnd(String line, String indentChars)
+   {
+      return markerStart(line, END, indentChars) >= 0;
+   }
+
+   /**
+    * @return the index of the marker in the line if it is only preceded by indentation, otherwise {@code -1}
+    */
+   private static int markerStart(String line, String marker, String indentChars)
+   {
+      final int index = line.indexOf(marker);
+      for (int i = 0; i < index; i++)
+      {
+         final char c = line.charAt(i);
+         if (!isWhitespace(c) && indentChars.indexOf(c) < 0)
+         {
+            return -1;
+         }
+      }
+      return index;
+   }
+
+   private static int skipWhitespace(String line, int pos)
+   {
+      while (pos < line.length() && isWhitespace(line.charAt(pos)))
+      {
+         pos++;
+      }
+      return pos;
+   }
+
+   // same as \s in regular expressions
+   private static boolean isWhitespace(char c)
+   {
+      return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+   }
+
+   // same as \w in regular expressions
+   private static boolean isWordChar(char c)
+   {
+      return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+   }
+
+   private static boolean isKeyChar(char c)
+   {
+      return isWordChar(c) || c == '.';
+   }
+}
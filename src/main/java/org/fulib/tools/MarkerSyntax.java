@@ -0,0 +1,126 @@
+package org.fulib.tools;
+
+import org.fulib.tools.fragments.FileType;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * The compiled form of a {@link FileType}.
+ */
+final class MarkerSyntax
+{
+   // =============== Constants ===============
+
+   private static final int MAX_CACHED_HEADERS = 10000;
+
+   // =============== Fields ===============
+
+   final FileType fileType;
+   private final PathMatcher fileNameMatcher;
+
+   /**
+    * The pattern for fragment start markers, or {@code null} if the file type cannot define fragments.
+    */
+   final Pattern startPattern;
+   final Pattern endPattern;
+
+   /**
+    * The characters that may precede insertion markers, or {@code null} if fragments cannot be inserted into the file
+    * type.
+    */
+   private final String insertionIndent;
+
+   /**
+    * The parsed insertion start markers, by line.
+    * Documentation tends to insert the same fragment with the same pipes in many places,
+    * so most lines are only parsed once.
+    */
+   private final Map<String, InsertionHeader> insertionHeaders = new ConcurrentHashMap<>();
+
+   // =============== Constructors ===============
+
+   MarkerSyntax(FileType fileType)
+   {
+      this.fileType = fileType;
+      this.fileNameMatcher = FileSystems.getDefault().getPathMatcher("glob:" + fileType.getGlob());
+
+      final String comment = fileType.getDefinitionComment();
+      if (comment != null)
+      {
+         final String quotedComment = Pattern.quote(comment);
+         this.startPattern = Pattern.compile("^(\\s*)" + quotedComment + " start_code_fragment: ([\\w.]+)\\s*$");
+         this.endPattern = Pattern.compile("^\\s*" + quotedComment + " end_code_fragment:.*$");
+      }
+      else
+      {
+         this.startPattern = null;
+         this.endPattern = null;
+      }
+
+      this.insertionIndent = fileType.getInsertionIndent();
+   }
+
+   // =============== Methods ===============
+
+   /**
+    * @param file
+    *    the file
+    *
+    * @return whether the name of the file matches the glob of the file type
+    */
+   boolean matches(Path file)
+   {
+      final Path fileName = file.getFileName();
+      return fileName != null && this.fileNameMatcher.matches(fileName);
+   }
+
+   /**
+    * @return whether fragments can be inserted into files of this type
+    */
+   boolean supportsInsertion()
+   {
+      return this.insertionIndent != null;
+   }
+
+   /**
+    * @param line
+    *    the line
+    *
+    * @return the parsed insertion start marker, or {@code null} if the line is none
+    */
+   InsertionHeader parseInsertionHeader(String line)
+   {
+      final InsertionHeader cached = this.insertionHeaders.get(line);
+      if (cached != null)
+      {
+         return cached;
+      }
+
+      final InsertionHeader header = InsertionHeader.parse(line, this.insertionIndent);
+      if (header != null)
+      {
+         if (this.insertionHeaders.size() >= MAX_CACHED_HEADERS)
+         {
+            this.insertionHeaders.clear();
+         }
+         this.insertionHeaders.put(line, header);
+      }
+      return header;
+   }
+
+   /**
+    * @param line
+    *    the line
+    *
+    * @return whether the line is an insertion end marker
+    */
+   boolean isInsertionEnd(String line)
+   {
+      return InsertionHeader.isEnd(line, this.insertionIndent);
+   }
+}
@@ -1,7 +1,6 @@
 package org.fulib.tools;
 
 import guru.nidi.graphviz.engine.Format;
-import guru.nidi.graphviz.engine.Graphviz;
 import org.fulib.StrUtil;
 import org.fulib.tools.diagrams.DiagramEdge;
 import org.fulib.tools.diagrams.DiagramObject;
@@ -16,13 +15,17 @@ import org.stringtemplate.v4.StringRenderer;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.Writer;
-import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Create object diagrams.
@@ -50,6 +53,15 @@ public class ObjectDiagrams
 
    private double scale = 1;
 
+   private int renderThreads = 1;
+
+   private DiagramRenderer renderer = DiagramRenderer.graphviz();
+
+   private DiagramCache cache;
+
+   private final LongAdder filesWritten = new LongAdder();
+   private final LongAdder filesUnchanged = new LongAdder();
+
    /**
     * @return the scale factor for rendering
     *
@@ -87,6 +99,152 @@ public class ObjectDiagrams
       return this;
    }
 
+   /**
+    * @return the maximum number of diagrams that {@link #dumpAll(List)} renders at the same time
+    *
+    * @since 1.7
+    */
+   public int getRenderThreads()
+   {
+      return this.renderThreads;
+   }
+
+   /**
+    * @param renderThreads the maximum number of diagrams that {@link #dumpAll(List)} renders at the same time
+    *
+    * @throws IllegalArgumentException
+    *    if {@code renderThreads} is less than {@code 1}
+    * @since 1.7
+    */
+   public void setRenderThreads(int renderThreads)
+   {
+      if (renderThreads < 1)
+      {
+         throw new IllegalArgumentException("renderThreads must be at least 1, but was " + renderThreads);
+      }
+      this.renderThreads = renderThreads;
+   }
+
+   /**
+    * Sets the maximum number of diagrams that {@link #dumpAll(List)} renders at the same time.
+    * Default is {@code 1}.
+    * With the {@linkplain DiagramRenderer#graphviz() default renderer}, the diagrams are rendered by the
+    * {@linkplain GraphvizEngines shared engine threads},
+    * so at most {@link GraphvizEngines#getThreads()} of them are rendered at the same time.
+    * The DOT descriptions of the diagrams are always built in parallel.
+    *
+    * @param renderThreads the maximum number of diagrams that {@link #dumpAll(List)} renders at the same time
+    *
+    * @return this instance, to allow method chaining
+    *
+    * @throws IllegalArgumentException
+    *    if {@code renderThreads} is less than {@code 1}
+    * @since 1.7
+    */
+   public ObjectDiagrams withRenderThreads(int renderThreads)
+   {
+      this.setRenderThreads(renderThreads);
+      return this;
+   }
+
+   /**
+    * @return the renderer that turns the DOT descriptions into PNG and SVG files
+    *
+    * @since 1.7
+    */
+   public DiagramRenderer getRenderer()
+   {
+      return this.renderer;
+   }
+
+   /**
+    * @param renderer the renderer that turns the DOT descriptions into PNG and SVG files
+    *
+    * @since 1.7
+    */
+   public void setRenderer(DiagramRenderer renderer)
+   {
+      this.renderer = Objects.requireNonNull(renderer, "renderer");
+   }
+
+   /**
+    * Sets the renderer that turns the DOT descriptions into PNG and SVG files.
+    * Default is {@link DiagramRenderer#graphviz()}.
+    * Scenario diagrams ({@code *.scenario.svg}) are always rendered with the Graphviz engine.
+    *
+    * @param renderer the renderer that turns the DOT descriptions into PNG and SVG files
+    *
+    * @return this instance, to allow method chaining
+    *
+    * @since 1.7
+    */
+   public ObjectDiagrams withRenderer(DiagramRenderer renderer)
+   {
+      this.setRenderer(renderer);
+      return this;
+   }
+
+   /**
+    * @return the cache for rendered diagrams, or {@code null} if every diagram is rendered
+    *
+    * @since 1.7
+    */
+   public DiagramCache getCache()
+   {
+      return this.cache;
+   }
+
+   /**
+    * @param cache the cache for rendered diagrams, or {@code null} to render every diagram
+    *
+    * @since 1.7
+    */
+   public void setCache(DiagramCache cache)
+   {
+      this.cache = cache;
+   }
+
+   /**
+    * Sets the cache for rendered diagrams, so that diagrams that did not change are copied instead of rendered.
+    * Default is {@code null}, which renders every diagram.
+    *
+    * @param cache the cache for rendered diagrams, or {@code null} to render every diagram
+    *
+    * @return this instance, to allow method chaining
+    *
+    * @since 1.7
+    */
+   public ObjectDiagrams withCache(DiagramCache cache)
+   {
+      this.setCache(cache);
+      return this;
+   }
+
+   /**
+    * @return the number of diagram files that were written, because they did not exist or their content changed.
+    * {@link #dump(DiagramJob)} and {@link #dumpAll(List)} report this for each diagram.
+    *
+    * @since 1.7
+    */
+   public long getFilesWritten()
+   {
+      return this.filesWritten.sum();
+   }
+
+   /**
+    * Diagram files that already have the same content are not written again,
+    * so that build tools do not consider them changed.
+    *
+    * @return the number of diagram files that were left untouched, because they already had the same content or the
+    * {@linkplain #setRenderer(DiagramRenderer) renderer} did not produce them
+    *
+    * @since 1.7
+    */
+   public long getFilesUnchanged()
+   {
+      return this.filesUnchanged.sum();
+   }
+
    /**
     * create an object diagram png in tmp/TheFirstObjectsClass.1.png <br>
     * Example: <br>
@@ -134,7 +292,7 @@ public class ObjectDiagrams
     */
    public String dumpPng(String diagramFileName, Object... objectList)
    {
-      return this.dump(Format.PNG, diagramFileName, objectList);
+      return this.dumpFile(DiagramJob.png(diagramFileName, objectList));
    }
 
    /**
@@ -154,13 +312,113 @@ public class ObjectDiagrams
     */
    public String dumpSVG(String diagramFileName, Object... objectList)
    {
-      if (diagramFileName.endsWith(".scenario.svg"))
+      return this.dumpFile(DiagramJob.svg(diagramFileName, objectList));
+   }
+
+   /**
+    * Writes the DOT description of an object diagram, without rendering it.
+    * This is much faster than rendering and results in text files that are easy to compare,
+    * e.g. with the output of a previous test run.
+    *
+    * @param diagramFileName the file name in which the DOT description should be saved
+    * @param objectList the list of objects to display
+    *
+    * @return the file name (= {@code diagramFileName}), for compatibility with {@link #dumpPng(Object...)}
+    *
+    * @since 1.7
+    */
+   public String dumpDot(String diagramFileName, Object... objectList)
+   {
+      try
+      {
+         this.dump(DiagramJob.dot(diagramFileName, objectList));
+      }
+      catch (IOException e)
+      {
+         e.printStackTrace();
+      }
+      return diagramFileName;
+   }
+
+   /**
+    * Renders a diagram like {@link #dumpPng(String, Object...)}, {@link #dumpSVG(String, Object...)} or
+    * {@link #dumpDot(String, Object...)}, depending on the format of the job,
+    * and reports whether its file was written.
+    *
+    * @param job the diagram to render
+    *
+    * @return the file name and whether the file was written
+    *
+    * @throws IOException
+    *    if the diagram could not be rendered or written
+    * @since 1.7
+    */
+   public DiagramResult dump(DiagramJob job) throws IOException
+   {
+      if (isScenario(job))
+      {
+         return this.dumpScenario(job.getFileName(), job.objectList()[0], this.cache);
+      }
+      return this.write(job, this.toDot(job.objectList()), this.renderer, this.cache, this.scale);
+   }
+
+   /**
+    * Renders many diagrams in the background.
+    * The DOT descriptions of the diagrams are built in parallel on the
+    * {@linkplain java.util.concurrent.ForkJoinPool#commonPool() common pool}, and then rendered by at most
+    * {@linkplain #setRenderThreads(int) renderThreads} threads, which are started for this call and stop when all
+    * diagrams are done.
+    * Since the objects are read concurrently, they must not be modified until all diagrams are done.
+    * <p>
+    * Example:
+    * <pre><code>
+    *    final List&lt;CompletableFuture&lt;DiagramResult&gt;&gt; results = FulibTools.objectDiagrams().dumpAll(jobs);
+    *    CompletableFuture.allOf(results.toArray(new CompletableFuture&lt;?&gt;[0])).join();
+    * </code></pre>
+    *
+    * @param jobs the diagrams to render
+    *
+    * @return one future per job, in the same order, which completes like {@link #dump(DiagramJob)}
+    * or exceptionally if the diagram could not be built or written
+    *
+    * @since 1.7
+    */
+   public List<CompletableFuture<DiagramResult>> dumpAll(List<DiagramJob> jobs)
+   {
+      if (jobs.isEmpty())
       {
-         new ScenarioDiagrams().dump(diagramFileName, objectList[0]);
-         return diagramFileName;
+         return new ArrayList<>();
       }
 
-      return this.dump(Format.SVG_STANDALONE, diagramFileName, objectList);
+      final double scale = this.scale;
+      final DiagramRenderer renderer = this.renderer;
+      final DiagramCache cache = this.cache;
+      final ExecutorService renderExecutor = Executors.newFixedThreadPool(Math.min(this.renderThreads, jobs.size()));
+      final List<CompletableFuture<DiagramResult>> results = new ArrayList<>(jobs.size());
+      for (DiagramJob job : jobs)
+      {
+         if (isScenario(job))
+         {
+            results.add(CompletableFuture.supplyAsync(
+               () -> this.dumpScenario(job.getFileName(), job.objectList()[0], cache), renderExecutor));
+            continue;
+         }
+
+         results.add(CompletableFuture.supplyAsync(() -> this.toDot(job.objectList())).thenApplyAsync(dotString -> {
+            try
+            {
+               return this.write(job, dotString, renderer, cache, scale);
+            }
+            catch (IOException e)
+            {
+               throw new UncheckedIOException(e);
+            }
+         }, renderExecutor));
+      }
+
+      CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                       .whenComplete((result, error) -> renderExecutor.shutdown());
+      return results;
    }
 
    /**
@@ -227,7 +485,46 @@ public class ObjectDiagrams
       return diagramFileName;
    }
 
-   private String dump(Format format, String diagramFileName, Object... objectList)
+   private String dumpFile(DiagramJob job)
+   {
+      try
+      {
+         return this.dump(job).getFileName();
+      }
+      catch (IOException e)
+      {
+         e.printStackTrace();
+      }
+
+      return null;
+   }
+
+   private static boolean isScenario(DiagramJob job)
+   {
+      return job.getFormat() == Format.SVG_STANDALONE && job.getFileName().endsWith(".scenario.svg");
+   }
+
+   private DiagramResult write(DiagramJob job, String dotString, DiagramRenderer renderer, DiagramCache cache,
+      double scale) throws IOException
+   {
+      final File file = new File(job.getFileName());
+      final boolean written = job.getFormat() == Format.DOT ?
+         DiagramFiles.write(file, dotString.getBytes(StandardCharsets.UTF_8)) :
+         DiagramFiles.render(renderer, cache, dotString, job.getFormat(), scale, file);
+      (written ? this.filesWritten : this.filesUnchanged).increment();
+      return new DiagramResult(job.getFileName(), written);
+   }
+
+   private DiagramResult dumpScenario(String diagramFileName, Object root, DiagramCache cache)
+   {
+      final ScenarioDiagrams scenarioDiagrams = new ScenarioDiagrams().withCache(cache);
+      scenarioDiagrams.dump(diagramFileName, root);
+      this.filesWritten.add(scenarioDiagrams.getFilesWritten());
+      this.filesUnchanged.add(scenarioDiagrams.getFilesUnchanged());
+      return new DiagramResult(diagramFileName, scenarioDiagrams.getFilesWritten() > 0);
+   }
+
+   String toDot(Object... objectList)
    {
       objectList = flatten(objectList);
       if (objectList.length == 0)
@@ -242,28 +539,16 @@ public class ObjectDiagrams
       final ReflectorMap reflectorMap = new ReflectorMap(packageName);
       final Set<Object> relevantObjects = idMap.collectObjects(objectList);
       final Set<DiagramObject> diagramObjects = new LinkedHashSet<>();
-      final Set<DiagramEdge> edges = new LinkedHashSet<>();
+      // edges are equal to their reverse, so each link is found by its opposite end
+      final Map<DiagramEdge, DiagramEdge> edges = new LinkedHashMap<>();
 
       this.makeNodes(relevantObjects, idMap, reflectorMap, diagramObjects, edges);
 
       final ST st = TEMPLATE_GROUP.getInstanceOf("objectDiagram");
       st.add("title", packageName);
       st.add("objects", diagramObjects);
-      st.add("edges", edges);
-      final String dotString = st.render();
-
-      try
-      {
-         Graphviz.fromString(dotString).scale(this.scale).render(format).toFile(new File(diagramFileName));
-
-         return diagramFileName;
-      }
-      catch (IOException e)
-      {
-         e.printStackTrace();
-      }
-
-      return null;
+      st.add("edges", edges.values());
+      return st.render();
    }
 
    private static Object[] flatten(Object... objectList)
@@ -285,7 +570,7 @@ public class ObjectDiagrams
    }
 
    private void makeNodes(Set<Object> relevantObjects, YamlIdMap idMap, ReflectorMap reflectorMap,
-      Set<DiagramObject> objects, Set<DiagramEdge> edges)
+      Set<DiagramObject> objects, Map<DiagramEdge, DiagramEdge> edges)
    {
       for (Map.Entry<String, Object> entry : idMap.getObjIdMap().entrySet())
       {
@@ -306,18 +591,18 @@ public class ObjectDiagrams
          final DiagramObject diagramObject = new DiagramObject(key, userKey, className, attributes);
          objects.add(diagramObject);
 
-         for (String prop : creator.getAllProperties())
+         for (String prop : getProperties(obj, creator))
          {
             if (obj instanceof YamlObject && (".id".equals(prop) || "type".equals(prop)))
             {
                continue;
             }
 
-            Object value = creator.getValue(obj, prop);
+            Object value = getValue(obj, prop, creator);
 
             if (value == null)
             {
-               if (this.getPropertyType(obj, prop) == String.class)
+               if (ClassMetadata.of(obj.getClass()).getType(prop) == String.class)
                {
                   attributes.put(prop, "null");
                }
@@ -374,13 +659,13 @@ public class ObjectDiagrams
 
    private String getUserKey(String key, Object obj, Reflector reflector)
    {
-      final Object id = reflector.getValue(obj, "id");
+      final Object id = getValue(obj, "id", reflector);
       if (id != null)
       {
          return StrUtil.downFirstChar(id.toString());
       }
 
-      final Object name = reflector.getValue(obj, "name");
+      final Object name = getValue(obj, "name", reflector);
       if (name != null)
       {
          return StrUtil.downFirstChar(name.toString());
@@ -389,17 +674,19 @@ public class ObjectDiagrams
       return key;
    }
 
-   private Class<?> getPropertyType(Object obj, String property)
+   private static String[] getProperties(Object obj, Reflector reflector)
    {
-      try
-      {
-         final Method method = obj.getClass().getMethod("get" + StrUtil.cap(property));
-         return method.getReturnType();
-      }
-      catch (Exception e)
-      {
-         return null;
-      }
+      // the properties of YamlObjects differ between instances, so they are not cached
+      return obj instanceof YamlObject ?
+         reflector.getAllProperties() :
+         ClassMetadata.of(obj.getClass()).getProperties(reflector);
+   }
+
+   private static Object getValue(Object obj, String property, Reflector reflector)
+   {
+      return obj instanceof YamlObject ?
+         reflector.getValue(obj, property) :
+         ClassMetadata.of(obj.getClass()).getValue(obj, property, reflector);
    }
 
    private Object renderValue(Object value)
@@ -422,22 +709,22 @@ public class ObjectDiagrams
       return 0 <= lambdaIndex && lambdaIndex <= className.indexOf('/');
    }
 
-   private void addEdge(Set<DiagramEdge> edges, String key, String targetKey, String prop)
+   private void addEdge(Map<DiagramEdge, DiagramEdge> edges, String key, String targetKey, String prop)
    {
-      for (DiagramEdge existing : edges)
+      final DiagramEdge edge = new DiagramEdge(key, targetKey, prop, null);
+      final DiagramEdge existing = edges.putIfAbsent(edge, edge);
+      if (existing == null)
       {
-         if (key.equals(existing.getSource()) && targetKey.equals(existing.getTarget()))
-         {
-            existing.setSourceLabel(prop);
-            return;
-         }
-         else if (key.equals(existing.getTarget()) && targetKey.equals(existing.getSource()))
-         {
-            existing.setTargetLabel(prop);
-            return;
-         }
+         return;
+      }
+
+      if (key.equals(existing.getSource()) && targetKey.equals(existing.getTarget()))
+      {
+         existing.setSourceLabel(prop);
+      }
+      else
+      {
+         existing.setTargetLabel(prop);
       }
-      final DiagramEdge edge = new DiagramEdge(key, targetKey, prop, null);
-      edges.add(edge);
    }
 }
@@ -0,0 +1,86 @@
+package org.fulib.tools;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which files and directories are visited, based on include and exclude globs.
+ * <p>
+ * A glob that contains a slash is matched against the path relative to the folder that is being walked,
+ * with {@code /} as the separator on all platforms.
+ * Other globs are matched against the name of the file or directory, wherever it is located.
+ */
+final class PathFilter
+{
+   // =============== Fields ===============
+
+   private final List<PathMatcher> includes;
+   private final List<PathMatcher> excludes;
+
+   // =============== Constructors ===============
+
+   PathFilter(List<String> includes, List<String> excludes)
+   {
+      this.includes = compile(includes);
+      this.excludes = compile(excludes);
+   }
+
+   // =============== Static Methods ===============
+
+   private static List<PathMatcher> compile(List<String> globs)
+   {
+      final List<PathMatcher> matchers = new ArrayList<>(globs.size());
+      for (String glob : globs)
+      {
+         final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+         if (glob.indexOf('/') >= 0)
+         {
+            matchers.add(path -> matcher.matches(path));
+         }
+         else
+         {
+            matchers.add(path -> path.getFileName() != null && matcher.matches(path.getFileName()));
+         }
+      }
+      return matchers;
+   }
+
+   private static boolean matchesAny(List<PathMatcher> matchers, Path path)
+   {
+      for (PathMatcher matcher : matchers)
+      {
+         if (matcher.matches(path))
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   // =============== Methods ===============
+
+   /**
+    * @param directory
+    *    the directory, relative to the folder that is being walked
+    *
+    * @return whether the directory and everything in it should be skipped
+    */
+   boolean skipsDirectory(Path directory)
+   {
+      return matchesAny(this.excludes, directory);
+   }
+
+   /**
+    * @param file
+    *    the file, relative to the folder that is being walked
+    *
+    * @return whether the file should be visited
+    */
+   boolean acceptsFile(Path file)
+   {
+      return (this.includes.isEmpty() || matchesAny(this.includes, file)) && !matchesAny(this.excludes, file);
+   }
+}
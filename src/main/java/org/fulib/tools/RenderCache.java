@@ -0,0 +1,122 @@
+package org.fulib.tools;
+
+import org.fulib.tools.pipe.Lines;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Remembers the rendered form of fragments, i.e. the output of their pipes split into lines and encoded as UTF-8,
+ * so that a fragment that is inserted in many places with the same pipes is only rendered once.
+ * <p>
+ * Entries are keyed by fragment key and pipe arguments, and are only used if the fragment content is the identical
+ * {@link FragmentStore.Content} instance that was rendered.
+ * This way, fragments that are replaced without going through {@link #invalidate(String)} are still detected.
+ * <p>
+ * This class is thread-safe.
+ */
+final class RenderCache
+{
+   // =============== Fields ===============
+
+   private final Map<String, Map<String, Rendered>> entries = new ConcurrentHashMap<>();
+
+   private final LongAdder hits = new LongAdder();
+   private final LongAdder misses = new LongAdder();
+
+   // =============== Properties ===============
+
+   long getHits()
+   {
+      return this.hits.sum();
+   }
+
+   long getMisses()
+   {
+      return this.misses.sum();
+   }
+
+   // =============== Methods ===============
+
+   /**
+    * @param key
+    *    the fragment key
+    * @param content
+    *    the fragment content
+    * @param pipeArgs
+    *    the arguments of the pipes applied to the content, or the empty string if there are none
+    * @param renderer
+    *    the function that applies the pipes to the content
+    *
+    * @return the lines of the rendered fragment, encoded as UTF-8
+    */
+   byte[][] render(String key, FragmentStore.Content content, String pipeArgs,
+      Function<FragmentStore.Content, CharSequence> renderer)
+   {
+      final Map<String, Rendered> keyEntries = this.entries.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+      final Rendered cached = keyEntries.get(pipeArgs);
+      if (cached != null && cached.content == content)
+      {
+         this.hits.increment();
+         return cached.lines;
+      }
+
+      this.misses.increment();
+
+      // rendering happens outside of the map, so slow pipes do not block other threads
+      final List<byte[]> lines = new ArrayList<>();
+      try
+      {
+         Lines.forEach(renderer.apply(content), (text, start, end) -> lines.add(
+            text.subSequence(start, end).toString().getBytes(StandardCharsets.UTF_8)));
+      }
+      catch (IOException e)
+      {
+         // cannot happen, the consumer does not write anywhere
+         throw new UncheckedIOException(e);
+      }
+      final byte[][] encodedLines = lines.toArray(new byte[0][]);
+      keyEntries.put(pipeArgs, new Rendered(content, encodedLines));
+      return encodedLines;
+   }
+
+   /**
+    * Removes all entries for the given fragment.
+    *
+    * @param key
+    *    the fragment key
+    */
+   void invalidate(String key)
+   {
+      this.entries.remove(key);
+   }
+
+   /**
+    * Removes all entries.
+    */
+   void clear()
+   {
+      this.entries.clear();
+   }
+
+   // =============== Classes ===============
+
+   private static final class Rendered
+   {
+      final FragmentStore.Content content;
+      final byte[][] lines;
+
+      Rendered(FragmentStore.Content content, byte[][] lines)
+      {
+         this.content = content;
+         this.lines = lines;
+      }
+   }
+}
@@ -0,0 +1,241 @@
+package org.fulib.tools;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * An output stream that replaces the content of a file, but only if the new content is different.
+ * <p>
+ * Written bytes are compared with the original content of the file.
+ * As long as they are equal, nothing is written to disk.
+ * At the first difference, a temporary file is created next to the original, the equal prefix is copied into it,
+ * and all further bytes are written to it.
+ * {@link #commit()} then moves the temporary file over the original, so readers never see a partially written file.
+ * <p>
+ * Memory use does not depend on the size of the file.
+ */
+final class ReplacingOutputStream extends OutputStream
+{
+   // =============== Constants ===============
+
+   private static final int BUFFER_SIZE = 8192;
+
+   // =============== Fields ===============
+
+   private final Path file;
+   private final byte[] content;
+
+   private final byte[] compareBuffer = new byte[BUFFER_SIZE];
+   private InputStream original;
+   private long equalLength;
+   private long length;
+
+   private Path tempFile;
+   private OutputStream output;
+
+   // =============== Constructors ===============
+
+   /**
+    * @param file
+    *    the file to replace
+    * @param content
+    *    the original content of the file if it is already in memory, or {@code null} to read it from the file
+    *
+    * @throws IOException
+    *    if the file cannot be opened
+    */
+   ReplacingOutputStream(Path file, byte[] content) throws IOException
+   {
+      this.file = file;
+      this.content = content;
+      this.original = this.openOriginal();
+   }
+
+   // =============== Properties ===============
+
+   /**
+    * @return the number of bytes written so far, i.e. the length of the new content
+    */
+   long getLength()
+   {
+      return this.length;
+   }
+
+   // =============== Static Methods ===============
+
+   private static int readFully(InputStream input, byte[] buffer, int length) throws IOException
+   {
+      int total = 0;
+      while (total < length)
+      {
+         final int read = input.read(buffer, total, length - total);
+         if (read < 0)
+         {
+            break;
+         }
+         total += read;
+      }
+      return total;
+   }
+
+   // =============== Methods ===============
+
+   private InputStream openOriginal() throws IOException
+   {
+      if (this.content != null)
+      {
+         return new ByteArrayInputStream(this.content);
+      }
+      return new BufferedInputStream(Files.newInputStream(this.file), BUFFER_SIZE);
+   }
+
+   @Override
+   public void write(int b) throws IOException
+   {
+      this.write(new byte[] { (byte) b }, 0, 1);
+   }
+
+   @Override
+   public void write(byte[] bytes, int offset, int length) throws IOException
+   {
+      this.length += length;
+      if (this.output == null)
+      {
+         if (this.matches(bytes, offset, length))
+         {
+            this.equalLength += length;
+            return;
+         }
+         this.startOutput();
+      }
+      this.output.write(bytes, offset, length);
+   }
+
+   private boolean matches(byte[] bytes, int offset, int length) throws IOException
+   {
+      while (length > 0)
+      {
+         final int chunk = Math.min(length, BUFFER_SIZE);
+         final int read = readFully(this.original, this.compareBuffer, chunk);
+         for (int i = 0; i < read; i++)
+         {
+            if (this.compareBuffer[i] != bytes[offset + i])
+            {
+               return false;
+            }
+         }
+         if (read < chunk)
+         {
+            // the original content is shorter
+            return false;
+         }
+         offset += chunk;
+         length -= chunk;
+      }
+      return true;
+   }
+
+   private void startOutput() throws IOException
+   {
+      final Path directory = this.file.toAbsolutePath().getParent();
+      this.tempFile = Files.createTempFile(directory, "." + this.file.getFileName() + ".", ".tmp");
+      if (this.file.getFileSystem().supportedFileAttributeViews().contains("posix"))
+      {
+         Files.setPosixFilePermissions(this.tempFile, Files.getPosixFilePermissions(this.file));
+      }
+
+      this.output = new BufferedOutputStream(Files.newOutputStream(this.tempFile), BUFFER_SIZE);
+
+      // copy the part that was equal so far
+      try (final InputStream prefix = this.openOriginal())
+      {
+         long remaining = this.equalLength;
+         while (remaining > 0)
+         {
+            final int read = prefix.read(this.compareBuffer, 0, (int) Math.min(remaining, BUFFER_SIZE));
+            if (read < 0)
+            {
+               throw new EOFException("file changed while updating: " + this.file);
+            }
+            this.output.write(this.compareBuffer, 0, read);
+            remaining -= read;
+         }
+      }
+
+      this.original.close();
+      this.original = null;
+   }
+
+   /**
+    * Replaces the file with the written content if it is different from the original content.
+    *
+    * @return {@code true} if the file was replaced, {@code false} if the content was equal
+    *
+    * @throws IOException
+    *    if writing or replacing the file fails
+    */
+   boolean commit() throws IOException
+   {
+      if (this.output == null)
+      {
+         if (this.original.read() < 0)
+         {
+            // same content
+            return false;
+         }
+         // the new content is a prefix of the original content
+         this.startOutput();
+      }
+
+      this.output.close();
+      this.output = null;
+
+      try
+      {
+         // some file systems, e.g. zip file systems, only replace the target if asked to
+         Files.move(this.tempFile, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (AtomicMoveNotSupportedException e)
+      {
+         Files.move(this.tempFile, this.file, StandardCopyOption.REPLACE_EXISTING);
+      }
+      this.tempFile = null;
+      return true;
+   }
+
+   /**
+    * Releases all resources.
+    * If {@link #commit()} was not called or failed, the temporary file is deleted and the original file is unchanged.
+    *
+    * @throws IOException
+    *    if closing or deleting fails
+    */
+   @Override
+   public void close() throws IOException
+   {
+      try
+      {
+         if (this.original != null)
+         {
+            this.original.close();
+            this.original = null;
+         }
+         if (this.output != null)
+         {
+            this.output.close();
+            this.output = null;
+         }
+      }
+      finally
+      {
+         if (this.tempFile != null)
+         {
+            Files.deleteIfExists(this.tempFile);
+            this.tempFile = null;
+         }
+      }
+   }
+}
@@ -1,7 +1,6 @@
 package org.fulib.tools;
 
 import guru.nidi.graphviz.engine.Format;
-import guru.nidi.graphviz.engine.Graphviz;
 import org.fulib.yaml.Reflector;
 import org.fulib.yaml.ReflectorMap;
 import org.fulib.yaml.YamlIdMap;
@@ -10,9 +9,75 @@ import org.stringtemplate.v4.ST;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ScenarioDiagrams
 {
+   private DiagramCache cache;
+
+   private final LongAdder filesWritten = new LongAdder();
+   private final LongAdder filesUnchanged = new LongAdder();
+
+   /**
+    * @return the cache for rendered diagrams, or {@code null} if every diagram is rendered
+    *
+    * @since 1.7
+    */
+   public DiagramCache getCache()
+   {
+      return this.cache;
+   }
+
+   /**
+    * @param cache the cache for rendered diagrams, or {@code null} to render every diagram
+    *
+    * @since 1.7
+    */
+   public void setCache(DiagramCache cache)
+   {
+      this.cache = cache;
+   }
+
+   /**
+    * Sets the cache for rendered diagrams,
+    * so that scenario diagrams that did not change are copied instead of rendered.
+    * Default is {@code null}, which renders every diagram.
+    *
+    * @param cache the cache for rendered diagrams, or {@code null} to render every diagram
+    *
+    * @return this instance, to allow method chaining
+    *
+    * @since 1.7
+    */
+   public ScenarioDiagrams withCache(DiagramCache cache)
+   {
+      this.setCache(cache);
+      return this;
+   }
+
+   /**
+    * @return the number of diagram files that were written, because they did not exist or their content changed
+    *
+    * @since 1.7
+    */
+   public long getFilesWritten()
+   {
+      return this.filesWritten.sum();
+   }
+
+   /**
+    * Diagram files that already have the same content are not written again,
+    * so that build tools do not consider them changed.
+    *
+    * @return the number of diagram files that were left untouched, because they already had the same content
+    *
+    * @since 1.7
+    */
+   public long getFilesUnchanged()
+   {
+      return this.filesUnchanged.sum();
+   }
+
    public void dump(String fileName, Object root)
    {
       Objects.requireNonNull(root);
@@ -44,7 +109,15 @@ public class ScenarioDiagrams
 
          // Files.write(Paths.get("tmp/scenario-diagram.txt"), dotString.getBytes());
 
-         Graphviz.fromString(dotString.toString()).render(Format.SVG).toFile(new File(fileName));
+         final File file = new File(fileName);
+         if (DiagramFiles.render(DiagramRenderer.graphviz(), this.cache, dotString, Format.SVG, 1, file))
+         {
+            this.filesWritten.increment();
+         }
+         else
+         {
+            this.filesUnchanged.increment();
+         }
       }
       catch (IOException e)
       {
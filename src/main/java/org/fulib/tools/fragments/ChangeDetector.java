@@ -0,0 +1,50 @@
+package org.fulib.tools.fragments;
+
+import java.util.zip.Checksum;
+
+/**
+ * A change detector computes checksums of file and fragment contents.
+ * {@link org.fulib.tools.CodeFragments} stores them in its index to find out whether a file or a fragment changed
+ * since the last run, without keeping the old content.
+ * <p>
+ * Whether a file needs to be rewritten is always decided by comparing the new content with the old content byte by
+ * byte, which stops at the first difference, so checksums are only computed when an index is used.
+ * <p>
+ * The following change detectors are predefined:
+ *
+ * <table>
+ *    <caption>
+ *       Predefined change detectors
+ *    </caption>
+ *    <tr>
+ *       <th>Name</th>
+ *       <th>Class</th>
+ *    </tr>
+ *    <tr>
+ *       <td>xxhash64 (default)</td>
+ *       <td>{@link XxHash64ChangeDetector}</td>
+ *    </tr>
+ *    <tr>
+ *       <td>sha1</td>
+ *       <td>{@link Sha1ChangeDetector}</td>
+ *    </tr>
+ * </table>
+ *
+ * @see org.fulib.tools.CodeFragments#setChangeDetector(ChangeDetector)
+ * @since 1.7
+ */
+public interface ChangeDetector
+{
+   /**
+    * The name is stored in the index.
+    * If it does not match the name of the change detector that is used to read the index, the index is discarded.
+    *
+    * @return the name of the checksum algorithm
+    */
+   String getName();
+
+   /**
+    * @return a new checksum in its initial state
+    */
+   Checksum newChecksum();
+}
@@ -0,0 +1,147 @@
+package org.fulib.tools.fragments;
+
+/**
+ * Describes a kind of file that {@link org.fulib.tools.CodeFragments} processes,
+ * and the comment syntax used for fragment markers in it.
+ * <p>
+ * Fragments are defined with line comments, e.g. for a {@code //} line comment:
+ * <pre><code>
+ *    // start_code_fragment: my.fragment.id
+ *    hello world
+ *    // end_code_fragment:
+ * </code></pre>
+ * or for a {@code #} line comment:
+ * <pre><code>
+ *    # start_code_fragment: my.fragment.id
+ *    hello world
+ *    # end_code_fragment:
+ * </code></pre>
+ * Fragments are inserted with HTML comments,
+ * which may be preceded by whitespace and the {@linkplain #getInsertionIndent() insertion indent} characters:
+ * <pre><code>
+ *    # &lt;!-- insert_code_fragment: my.fragment.id --&gt;
+ *    # &lt;!-- end_code_fragment: --&gt;
+ * </code></pre>
+ * The following file types are predefined:
+ *
+ * <table>
+ *    <caption>
+ *       Predefined file types
+ *    </caption>
+ *    <tr>
+ *       <th>Name</th>
+ *       <th>Constant</th>
+ *    </tr>
+ *    <tr>
+ *       <td>java</td>
+ *       <td>{@link #JAVA}</td>
+ *    </tr>
+ *    <tr>
+ *       <td>md</td>
+ *       <td>{@link #MARKDOWN}</td>
+ *    </tr>
+ *    <tr>
+ *       <td>gradle</td>
+ *       <td>{@link #GRADLE}</td>
+ *    </tr>
+ * </table>
+ *
+ * @see org.fulib.tools.CodeFragments#addFileType(String, FileType)
+ * @since 1.7
+ */
+public class FileType
+{
+   // =============== Constants ===============
+
+   /**
+    * Java source files, which can define fragments with {@code //} comments and insert them,
+    * e.g. into JavaDoc comments.
+    */
+   public static final FileType JAVA = new FileType("*.java", "//", "*>");
+
+   /**
+    * Markdown files, which can define fragments with {@code //} comments and insert them,
+    * e.g. into blockquotes.
+    */
+   public static final FileType MARKDOWN = new FileType("*.md", "//", "*>");
+
+   /**
+    * Gradle build scripts, which can define fragments with {@code //} comments, but not insert them.
+    */
+   public static final FileType GRADLE = new FileType("build.gradle", "//", null);
+
+   // =============== Fields ===============
+
+   private final String glob;
+   private final String definitionComment;
+   private final String insertionIndent;
+
+   // =============== Constructors ===============
+
+   /**
+    * @param glob
+    *    a glob that matches the names of the files of this type, e.g. {@code *.java} or {@code build.gradle}
+    * @param definitionComment
+    *    the line comment that starts fragment definition markers, e.g. {@code //} or {@code #},
+    *    or {@code null} if files of this type cannot define fragments
+    * @param insertionIndent
+    *    the characters that may precede insertion markers in addition to whitespace, e.g. {@code *>},
+    *    or {@code null} if fragments cannot be inserted into files of this type
+    *
+    * @see java.nio.file.FileSystem#getPathMatcher(String)
+    */
+   public FileType(String glob, String definitionComment, String insertionIndent)
+   {
+      this.glob = glob;
+      this.definitionComment = definitionComment;
+      this.insertionIndent = insertionIndent;
+   }
+
+   // =============== Properties ===============
+
+   /**
+    * @return a glob that matches the names of the files of this type
+    */
+   public String getGlob()
+   {
+      return this.glob;
+   }
+
+   /**
+    * @return the line comment that starts fragment definition markers,
+    * or {@code null} if files of this type cannot define fragments
+    */
+   public String getDefinitionComment()
+   {
+      return this.definitionComment;
+   }
+
+   /**
+    * Returns the characters that may precede insertion markers in addition to whitespace.
+    * They are repeated in front of every inserted line,
+    * so a fragment inserted into a JavaDoc comment stays within the comment.
+    *
+    * @return the characters that may precede insertion markers in addition to whitespace,
+    * or {@code null} if fragments cannot be inserted into files of this type
+    */
+   public String getInsertionIndent()
+   {
+      return this.insertionIndent;
+   }
+
+   /**
+    * @return whether files of this type can define fragments
+    */
+   public boolean supportsDefinition()
+   {
+      return this.definitionComment != null;
+   }
+
+   /**
+    * @return whether fragments can be inserted into files of this type
+    */
+   public boolean supportsInsertion()
+   {
+      return this.insertionIndent != null;
+   }
+}
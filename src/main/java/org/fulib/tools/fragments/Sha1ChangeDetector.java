@@ -0,0 +1,79 @@
+package org.fulib.tools.fragments;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Checksum;
+
+/**
+ * A change detector that uses the first 64 bits of the SHA-1 hash.
+ * This is slower than the default {@link XxHash64ChangeDetector} and only provided for compatibility.
+ *
+ * @since 1.7
+ */
+public class Sha1ChangeDetector implements ChangeDetector
+{
+   public static final String NAME = "sha1";
+
+   @Override
+   public String getName()
+   {
+      return NAME;
+   }
+
+   @Override
+   public Checksum newChecksum()
+   {
+      final MessageDigest digest;
+      try
+      {
+         digest = MessageDigest.getInstance("SHA-1");
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         throw new RuntimeException(e);
+      }
+
+      return new Checksum()
+      {
+         @Override
+         public void update(int b)
+         {
+            digest.update((byte) b);
+         }
+
+         @Override
+         public void update(byte[] b, int off, int len)
+         {
+            digest.update(b, off, len);
+         }
+
+         @Override
+         public long getValue()
+         {
+            final byte[] hash;
+            try
+            {
+               // getValue must not reset the state, so digest a copy
+               hash = ((MessageDigest) digest.clone()).digest();
+            }
+            catch (CloneNotSupportedException e)
+            {
+               throw new UnsupportedOperationException(e);
+            }
+
+            long value = 0;
+            for (int i = 0; i < Long.BYTES; i++)
+            {
+               value = value << 8 | hash[i] & 0xFF;
+            }
+            return value;
+         }
+
+         @Override
+         public void reset()
+         {
+            digest.reset();
+         }
+      };
+   }
+}
@@ -0,0 +1,173 @@
+package org.fulib.tools.fragments;
+
+import java.util.zip.Checksum;
+
+/**
+ * A streaming implementation of the XXH64 hash function with seed {@code 0}.
+ *
+ * @see <a href="https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md">xxHash specification</a>
+ */
+final class XxHash64 implements Checksum
+{
+   // =============== Constants ===============
+
+   private static final long PRIME1 = 0x9E3779B185EBCA87L;
+   private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+   private static final long PRIME3 = 0x165667B19E3779F9L;
+   private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+   private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+   private static final int STRIPE_SIZE = 32;
+
+   // =============== Fields ===============
+
+   private long v1;
+   private long v2;
+   private long v3;
+   private long v4;
+   private long totalLength;
+
+   // input that does not fill a whole stripe yet
+   private final byte[] buffer = new byte[STRIPE_SIZE];
+   private int bufferSize;
+
+   // =============== Constructors ===============
+
+   XxHash64()
+   {
+      this.reset();
+   }
+
+   // =============== Static Methods ===============
+
+   private static long round(long acc, long input)
+   {
+      acc += input * PRIME2;
+      acc = Long.rotateLeft(acc, 31);
+      return acc * PRIME1;
+   }
+
+   private static long mergeRound(long acc, long value)
+   {
+      acc ^= round(0, value);
+      return acc * PRIME1 + PRIME4;
+   }
+
+   private static long getLong(byte[] bytes, int offset)
+   {
+      return (bytes[offset] & 0xFFL) | (bytes[offset + 1] & 0xFFL) << 8 | (bytes[offset + 2] & 0xFFL) << 16
+             | (bytes[offset + 3] & 0xFFL) << 24 | (bytes[offset + 4] & 0xFFL) << 32
+             | (bytes[offset + 5] & 0xFFL) << 40 | (bytes[offset + 6] & 0xFFL) << 48
+             | (bytes[offset + 7] & 0xFFL) << 56;
+   }
+
+   private static long getInt(byte[] bytes, int offset)
+   {
+      return (bytes[offset] & 0xFFL) | (bytes[offset + 1] & 0xFFL) << 8 | (bytes[offset + 2] & 0xFFL) << 16
+             | (bytes[offset + 3] & 0xFFL) << 24;
+   }
+
+   // =============== Methods ===============
+
+   @Override
+   public void reset()
+   {
+      this.v1 = PRIME1 + PRIME2;
+      this.v2 = PRIME2;
+      this.v3 = 0;
+      this.v4 = -PRIME1;
+      this.totalLength = 0;
+      this.bufferSize = 0;
+   }
+
+   @Override
+   public void update(int b)
+   {
+      this.update(new byte[] { (byte) b }, 0, 1);
+   }
+
+   @Override
+   public void update(byte[] b, int off, int len)
+   {
+      this.totalLength += len;
+
+      if (this.bufferSize > 0)
+      {
+         final int count = Math.min(len, STRIPE_SIZE - this.bufferSize);
+         System.arraycopy(b, off, this.buffer, this.bufferSize, count);
+         this.bufferSize += count;
+         off += count;
+         len -= count;
+
+         if (this.bufferSize < STRIPE_SIZE)
+         {
+            return;
+         }
+         this.processStripe(this.buffer, 0);
+         this.bufferSize = 0;
+      }
+
+      final int end = off + len;
+      for (; off + STRIPE_SIZE <= end; off += STRIPE_SIZE)
+      {
+         this.processStripe(b, off);
+      }
+
+      this.bufferSize = end - off;
+      System.arraycopy(b, off, this.buffer, 0, this.bufferSize);
+   }
+
+   private void processStripe(byte[] bytes, int offset)
+   {
+      this.v1 = round(this.v1, getLong(bytes, offset));
+      this.v2 = round(this.v2, getLong(bytes, offset + 8));
+      this.v3 = round(this.v3, getLong(bytes, offset + 16));
+      this.v4 = round(this.v4, getLong(bytes, offset + 24));
+   }
+
+   @Override
+   public long getValue()
+   {
+      long hash;
+      if (this.totalLength >= STRIPE_SIZE)
+      {
+         hash = Long.rotateLeft(this.v1, 1) + Long.rotateLeft(this.v2, 7) + Long.rotateLeft(this.v3, 12)
+                + Long.rotateLeft(this.v4, 18);
+         hash = mergeRound(hash, this.v1);
+         hash = mergeRound(hash, this.v2);
+         hash = mergeRound(hash, this.v3);
+         hash = mergeRound(hash, this.v4);
+      }
+      else
+      {
+         hash = PRIME5;
+      }
+
+      hash += this.totalLength;
+
+      int offset = 0;
+      for (; offset + 8 <= this.bufferSize; offset += 8)
+      {
+         hash ^= round(0, getLong(this.buffer, offset));
+         hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+      }
+      if (offset + 4 <= this.bufferSize)
+      {
+         hash ^= getInt(this.buffer, offset) * PRIME1;
+         hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+         offset += 4;
+      }
+      for (; offset < this.bufferSize; offset++)
+      {
+         hash ^= (this.buffer[offset] & 0xFFL) * PRIME5;
+         hash = Long.rotateLeft(hash, 11) * PRIME1;
+      }
+
+      hash ^= hash >>> 33;
+      hash *= PRIME2;
+      hash ^= hash >>> 29;
+      hash *= PRIME3;
+      hash ^= hash >>> 32;
+      return hash;
+   }
+}
@@ -0,0 +1,29 @@
+package org.fulib.tools.fragments;
+
+import java.util.zip.Checksum;
+
+/**
+ * A change detector that uses the 64-bit variant of the non-cryptographic
+ * <a href="https://github.com/Cyan4973/xxHash">xxHash</a> algorithm.
+ * It is several times faster than cryptographic hash functions, while collisions are still very unlikely.
+ * <p>
+ * This is the default change detector.
+ *
+ * @since 1.7
+ */
+public class XxHash64ChangeDetector implements ChangeDetector
+{
+   public static final String NAME = "xxhash64";
+
+   @Override
+   public String getName()
+   {
+      return NAME;
+   }
+
+   @Override
+   public Checksum newChecksum()
+   {
+      return new XxHash64();
+   }
+}
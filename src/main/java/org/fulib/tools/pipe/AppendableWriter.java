@@ -0,0 +1,73 @@
+package org.fulib.tools.pipe;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * Adapts an {@link Appendable} to APIs that require a {@link Writer}.
+ */
+final class AppendableWriter extends Writer
+{
+   // =============== Fields ===============
+
+   private final Appendable out;
+
+   // =============== Constructors ===============
+
+   private AppendableWriter(Appendable out)
+   {
+      this.out = out;
+   }
+
+   // =============== Static Methods ===============
+
+   static Writer of(Appendable out)
+   {
+      return out instanceof Writer ? (Writer) out : new AppendableWriter(out);
+   }
+
+   // =============== Methods ===============
+
+   @Override
+   public void write(int c) throws IOException
+   {
+      this.out.append((char) c);
+   }
+
+   @Override
+   public void write(char[] cbuf, int off, int len) throws IOException
+   {
+      this.out.append(CharBuffer.wrap(cbuf, off, len));
+   }
+
+   @Override
+   public void write(String str, int off, int len) throws IOException
+   {
+      this.out.append(str, off, off + len);
+   }
+
+   @Override
+   public Writer append(CharSequence csq) throws IOException
+   {
+      this.out.append(csq);
+      return this;
+   }
+
+   @Override
+   public Writer append(CharSequence csq, int start, int end) throws IOException
+   {
+      this.out.append(csq, start, end);
+      return this;
+   }
+
+   @Override
+   public void flush()
+   {
+   }
+
+   @Override
+   public void close()
+   {
+   }
+}
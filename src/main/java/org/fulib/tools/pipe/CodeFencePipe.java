@@ -1,5 +1,7 @@
 package org.fulib.tools.pipe;
 
+import java.io.IOException;
+
 /**
  * A pipe that puts the input text into a markdown code fence.
  * E.g.,
@@ -33,7 +35,7 @@ package org.fulib.tools.pipe;
  *
  * @since 1.2
  */
-public class CodeFencePipe implements Pipe
+public class CodeFencePipe implements StreamingPipe
 {
    public static final String NAME = "fenced";
 
@@ -51,9 +53,16 @@ public class CodeFencePipe implements Pipe
 
    @Override
    public String apply(String content, String arg)
+   {
+      return StreamingPipe.super.apply(content, arg);
+   }
+
+   @Override
+   public void apply(CharSequence content, String arg, Appendable out) throws IOException
    {
       final String lang = this.getLanguage(arg);
-      return "```" + lang + System.lineSeparator() + content + "```" + System.lineSeparator();
+      out.append("```").append(lang).append(System.lineSeparator()).append(content).append("```")
+         .append(System.lineSeparator());
    }
 
    private String getLanguage(String arg)
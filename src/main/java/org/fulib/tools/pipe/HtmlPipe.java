@@ -2,19 +2,27 @@ package org.fulib.tools.pipe;
 
 import org.apache.commons.text.StringEscapeUtils;
 
+import java.io.IOException;
+
 /**
  * A pipe that escapes any HTML4 special characters using HTML entities.
  * Useful in plain Javadoc contexts.
  *
  * @since 1.2
  */
-public class HtmlPipe implements Pipe
+public class HtmlPipe implements StreamingPipe
 {
    public static final String NAME = "html";
 
    @Override
    public String apply(String content, String arg)
    {
-      return StringEscapeUtils.escapeHtml4(content);
+      return StreamingPipe.super.apply(content, arg);
+   }
+
+   @Override
+   public void apply(CharSequence content, String arg, Appendable out) throws IOException
+   {
+      StringEscapeUtils.ESCAPE_HTML4.translate(content, AppendableWriter.of(out));
    }
 }
@@ -1,12 +1,14 @@
 package org.fulib.tools.pipe;
 
+import java.io.IOException;
+
 /**
  * A pipe that indents each line of the input text with 4 spaces.
  * Useful in markdown contexts when fenced code blocks are not desired.
  *
  * @since 1.2
  */
-public class IndentPipe implements Pipe
+public class IndentPipe implements StreamingPipe
 {
    public static final String NAME = "indent";
    private static final String INSERT_INDENT = "    ";
@@ -14,11 +16,12 @@ public class IndentPipe implements Pipe
    @Override
    public String apply(String content, String arg)
    {
-      final StringBuilder result = new StringBuilder();
-      for (String s : content.split(System.lineSeparator()))
-      {
-         result.append(INSERT_INDENT).append(s).append(System.lineSeparator());
-      }
-      return result.toString();
+      return StreamingPipe.super.apply(content, arg);
+   }
+
+   @Override
+   public void apply(CharSequence content, String arg, Appendable out) throws IOException
+   {
+      Lines.appendIndented(content, INSERT_INDENT, out);
    }
 }
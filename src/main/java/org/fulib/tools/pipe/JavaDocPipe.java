@@ -2,6 +2,8 @@ package org.fulib.tools.pipe;
 
 import org.fulib.tools.CodeFragments;
 
+import java.io.IOException;
+
 /**
  * A pipe that wraps the input text for use in Javadoc comments.
  * E.g.,
@@ -23,13 +25,20 @@ import org.fulib.tools.CodeFragments;
  *
  * @since 1.2
  */
-public class JavaDocPipe implements Pipe
+public class JavaDocPipe implements StreamingPipe
 {
    public static final String NAME = "javadoc";
 
    @Override
    public String apply(String content, String arg)
    {
-      return "<pre>{@code" + System.lineSeparator() + content + "}</pre>" + System.lineSeparator();
+      return StreamingPipe.super.apply(content, arg);
+   }
+
+   @Override
+   public void apply(CharSequence content, String arg, Appendable out) throws IOException
+   {
+      out.append("<pre>{@code").append(System.lineSeparator()).append(content).append("}</pre>")
+         .append(System.lineSeparator());
    }
 }
@@ -0,0 +1,128 @@
+package org.fulib.tools.pipe;
+
+import java.io.IOException;
+
+/**
+ * Utilities for processing text line by line without splitting it into separate strings.
+ * <p>
+ * Lines are separated by {@link System#lineSeparator()}.
+ * Like {@link String#split(String)}, trailing empty lines are ignored, and the empty text consists of one empty line.
+ *
+ * @since 1.7
+ */
+public final class Lines
+{
+   // =============== Classes ===============
+
+   /**
+    * Receives the lines of a text as index ranges into the text.
+    */
+   @FunctionalInterface
+   public interface LineConsumer
+   {
+      /**
+       * @param text
+       *    the text
+       * @param start
+       *    the start index of the line in the text, inclusive
+       * @param end
+       *    the end index of the line in the text, exclusive, not including the line separator
+       *
+       * @throws IOException
+       *    when writing the line fails
+       */
+      void accept(CharSequence text, int start, int end) throws IOException;
+   }
+
+   // =============== Constructors ===============
+
+   private Lines()
+   {
+   }
+
+   // =============== Static Methods ===============
+
+   /**
+    * Calls the consumer for each line of the text.
+    *
+    * @param text
+    *    the text
+    * @param consumer
+    *    the consumer
+    *
+    * @throws IOException
+    *    when the consumer throws it
+    */
+   public static void forEach(CharSequence text, LineConsumer consumer) throws IOException
+   {
+      final String separator = System.lineSeparator();
+      final int separatorLength = separator.length();
+
+      if (text.length() == 0)
+      {
+         consumer.accept(text, 0, 0);
+         return;
+      }
+
+      // trailing empty lines are ignored
+      int limit = text.length();
+      while (limit >= separatorLength && regionMatches(text, limit - separatorLength, separator))
+      {
+         limit -= separatorLength;
+      }
+
+      int start = 0;
+      for (int i = 0; i < limit; )
+      {
+         if (regionMatches(text, i, separator))
+         {
+            consumer.accept(text, start, i);
+            i += separatorLength;
+            start = i;
+         }
+         else
+         {
+            i++;
+         }
+      }
+      if (start < limit)
+      {
+         consumer.accept(text, start, limit);
+      }
+   }
+
+   /**
+    * Appends each line of the text to the output, preceded by the indent and followed by the line separator.
+    *
+    * @param text
+    *    the text
+    * @param indent
+    *    the indent
+    * @param out
+    *    the output
+    *
+    * @throws IOException
+    *    when appending to the output fails
+    */
+   public static void appendIndented(CharSequence text, CharSequence indent, Appendable out) throws IOException
+   {
+      final String separator = System.lineSeparator();
+      forEach(text, (t, start, end) -> out.append(indent).append(t, start, end).append(separator));
+   }
+
+   private static boolean regionMatches(CharSequence text, int offset, String str)
+   {
+      if (offset + str.length() > text.length())
+      {
+         return false;
+      }
+      for (int i = 0; i < str.length(); i++)
+      {
+         if (text.charAt(offset + i) != str.charAt(i))
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+}
@@ -1,9 +1,13 @@
 package org.fulib.tools.pipe;
 
+import java.io.IOException;
+
 /**
  * A pipe can transform the input text of a code fragment to a different output format.
  * <p>
  * This is a {@linkplain FunctionalInterface functional interface} and can be implemented using lambda expressions.
+ * Pipes that transform large texts should implement {@link StreamingPipe} instead,
+ * which writes its output directly instead of building an intermediate string.
  *
  * @see org.fulib.tools.CodeFragments
  * @since 1.2
@@ -22,4 +26,26 @@ public interface Pipe
     * @return the transformed text
     */
    String apply(String content, String arg);
+
+   /**
+    * Transforms the input text of the code fragment to the output format specified by this pipe,
+    * and appends the result to the output.
+    * The default implementation appends the result of {@link #apply(String, String)};
+    * {@link StreamingPipe StreamingPipes} write to the output directly.
+    *
+    * @param content
+    *    the input text
+    * @param arg
+    *    the pipe argument of the form {@code <pipeName>} or {@code <pipeName>:<args>}
+    * @param out
+    *    the output
+    *
+    * @throws IOException
+    *    when appending to the output fails
+    * @since 1.7
+    */
+   default void apply(CharSequence content, String arg, Appendable out) throws IOException
+   {
+      out.append(this.apply(content.toString(), arg));
+   }
 }
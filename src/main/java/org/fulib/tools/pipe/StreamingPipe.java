@@ -0,0 +1,85 @@
+package org.fulib.tools.pipe;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A pipe that writes its output to an {@link Appendable} instead of returning it as a string.
+ * <p>
+ * When pipes are chained, streaming pipes write directly into the buffer that the next pipe reads from,
+ * so no intermediate copies of the fragment are created.
+ * Every streaming pipe is also a {@link Pipe}; {@link #apply(String, String)} collects the output in a string.
+ * Conversely, {@link #of(Pipe)} adapts any pipe to this interface.
+ * <p>
+ * This is a {@linkplain FunctionalInterface functional interface} and can be implemented using lambda expressions,
+ * e.g. {@code addPipe("upper", (StreamingPipe) (content, arg, out) -> out.append(content.toString().toUpperCase()));}.
+ *
+ * @see org.fulib.tools.CodeFragments
+ * @since 1.7
+ */
+@FunctionalInterface
+public interface StreamingPipe extends Pipe
+{
+   // =============== Static Methods ===============
+
+   /**
+    * @param pipe
+    *    the pipe
+    *
+    * @return the pipe itself if it is a streaming pipe, otherwise a streaming pipe that delegates to it
+    */
+   static StreamingPipe of(Pipe pipe)
+   {
+      if (pipe instanceof StreamingPipe)
+      {
+         return (StreamingPipe) pipe;
+      }
+      return (content, arg, out) -> pipe.apply(content, arg, out);
+   }
+
+   // =============== Methods ===============
+
+   /**
+    * Transforms the input text of the code fragment to the output format specified by this pipe,
+    * and appends the result to the output.
+    *
+    * @param content
+    *    the input text
+    * @param arg
+    *    the pipe argument of the form {@code <pipeName>} or {@code <pipeName>:<args>}
+    * @param out
+    *    the output
+    *
+    * @throws IOException
+    *    when appending to the output fails
+    */
+   @Override
+   void apply(CharSequence content, String arg, Appendable out) throws IOException;
+
+   /**
+    * Transforms the input text of the code fragment to the output format specified by this pipe.
+    * The default implementation collects the output of {@link #apply(CharSequence, String, Appendable)}.
+    *
+    * @param content
+    *    the input text
+    * @param arg
+    *    the pipe argument of the form {@code <pipeName>} or {@code <pipeName>:<args>}
+    *
+    * @return the transformed text
+    */
+   @Override
+   default String apply(String content, String arg)
+   {
+      final StringBuilder result = new StringBuilder(content.length() + 64);
+      try
+      {
+         this.apply(content, arg, result);
+      }
+      catch (IOException e)
+      {
+         // cannot happen with a StringBuilder
+         throw new UncheckedIOException(e);
+      }
+      return result.toString();
+   }
+}
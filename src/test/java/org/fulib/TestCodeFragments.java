@@ -2,37 +2,62 @@ package org.fulib;
 
 import org.apache.commons.io.IOUtils;
 import org.fulib.tools.CodeFragments;
+import org.fulib.tools.CodeFragmentsReport;
+import org.fulib.tools.fragments.FileType;
+import org.fulib.tools.fragments.Sha1ChangeDetector;
+import org.fulib.tools.fragments.XxHash64ChangeDetector;
 import org.fulib.tools.pipe.CodeFencePipe;
+import org.fulib.tools.pipe.IndentPipe;
+import org.fulib.tools.pipe.Lines;
+import org.fulib.tools.pipe.Pipe;
+import org.fulib.tools.pipe.StreamingPipe;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.Checksum;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 public class TestCodeFragments
 {
-   private static final String FOLDER = "code-fragments";
-
    private static String[] FILES = { "CodeFragmentExample.java", "CodeFragmentExample.md" };
 
+   // every test gets its own folder, which is deleted even if the test fails
+   @Rule
+   public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+   private Path folder;
+
    @Before
    public void setup() throws IOException
    {
-      Files.createDirectories(Paths.get(FOLDER));
+      this.folder = this.temporaryFolder.getRoot().toPath();
 
       for (String file : FILES)
       {
          try (final InputStream input = this.getClass().getResourceAsStream(file))
          {
-            Files.copy(input, Paths.get(FOLDER, file), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(input, this.folder.resolve(file), StandardCopyOption.REPLACE_EXISTING);
          }
       }
    }
@@ -49,21 +74,574 @@ public class TestCodeFragments
    public void testCodeFragments() throws IOException
    {
       final CodeFragments fragments = FulibTools.codeFragments();
+      this.checkUpdate(fragments);
+   }
+
+   @Test
+   public void testCodeFragmentsParallel() throws IOException
+   {
+      final CodeFragments fragments = FulibTools.codeFragments().withParallelism(4);
+      this.checkUpdate(fragments);
+   }
+
+   @Test
+   public void testCodeFragmentsIndex() throws IOException
+   {
+      final String indexFile = this.folder.resolve("build/codeFragments.index").toString();
+
+      this.checkUpdate(FulibTools.codeFragments().withIndexFile(indexFile));
+      assertThat(Files.exists(Paths.get(indexFile)), is(true));
+
+      // no-op run, fragments are taken from the index
+      this.checkUpdate(FulibTools.codeFragments().withIndexFile(indexFile));
+
+      // changed fragment definitions are picked up
+      final Path javaFile = this.folder.resolve("CodeFragmentExample.java");
+      final String javaText = new String(Files.readAllBytes(javaFile), StandardCharsets.UTF_8);
+      Files.write(javaFile, javaText.replace("Hello World", "Hello Index").getBytes(StandardCharsets.UTF_8));
+
+      final CodeFragments fragments = FulibTools.codeFragments().withIndexFile(indexFile);
+      fragments.addPipe("fencedCustom", new CodeFencePipe("custom"));
+      fragments.update(this.folder.toString());
+
+      final String actualMd = new String(Files.readAllBytes(this.folder.resolve("CodeFragmentExample.md")),
+                                         StandardCharsets.UTF_8);
+      assertThat(actualMd.contains("Hello Index"), is(true));
+      assertThat(actualMd.contains("Hello World"), is(false));
+
+      // changes within the precision of modification times keep both size and modification time
+      final FileTime lastModified = Files.getLastModifiedTime(javaFile);
+      Files.write(javaFile, javaText.replace("Hello World", "Hello Racy!").getBytes(StandardCharsets.UTF_8));
+      Files.setLastModifiedTime(javaFile, lastModified);
+
+      final CodeFragments racyFragments = FulibTools.codeFragments().withIndexFile(indexFile);
+      racyFragments.addPipe("fencedCustom", new CodeFencePipe("custom"));
+      racyFragments.update(this.folder.toString());
+
+      final String racyMd = new String(Files.readAllBytes(this.folder.resolve("CodeFragmentExample.md")),
+                                       StandardCharsets.UTF_8);
+      assertThat(racyMd.contains("Hello Racy!"), is(true));
+      assertThat(racyMd.contains("Hello Index"), is(false));
+   }
+
+   @Test
+   public void testChangeDetector() throws IOException
+   {
+      final String indexFile = this.folder.resolve("build/codeFragments.index").toString();
+
+      this.checkUpdate(
+         FulibTools.codeFragments().withIndexFile(indexFile).withChangeDetector(new Sha1ChangeDetector()));
+      // the index was written with a different change detector and is discarded
+      this.checkUpdate(FulibTools.codeFragments().withIndexFile(indexFile));
+      this.checkUpdate(FulibTools.codeFragments().withIndexFile(indexFile));
+
+      // reference value from the xxHash test suite
+      final byte[] input = "Nobody inspects the spammish repetition".getBytes(StandardCharsets.US_ASCII);
+      final Checksum checksum = new XxHash64ChangeDetector().newChecksum();
+      checksum.update(input, 0, 10);
+      checksum.update(input, 10, input.length - 10);
+      assertThat(checksum.getValue(), is(0xFBCEA83C8A378BF1L));
+   }
+
+   @Test
+   public void testXxHash64()
+   {
+      // the sanity test buffer and reference values of xxhsum
+      final byte[] input = new byte[222];
+      long byteGen = 2654435761L;
+      for (int i = 0; i < input.length; i++)
+      {
+         input[i] = (byte) (byteGen >>> 56);
+         byteGen *= 0x9E3779B185EBCA8DL;
+      }
+
+      final long[][] vectors = { { 0, 0xEF46DB3751D8E999L }, { 1, 0xE934A84ADB052768L },
+                                 { 14, 0x8282DCC4994E35C8L }, { 222, 0xB641AE8CB691C174L } };
+      final Checksum checksum = new XxHash64ChangeDetector().newChecksum();
+      for (final long[] vector : vectors)
+      {
+         final int length = (int) vector[0];
+         final long expected = vector[1];
+
+         checksum.reset();
+         checksum.update(input, 0, length);
+         assertThat("length " + length, checksum.getValue(), is(expected));
+
+         // chunks that do not align with the 32-byte stripes
+         for (final int chunkSize : new int[] { 1, 7, 31, 33 })
+         {
+            checksum.reset();
+            for (int start = 0; start < length; start += chunkSize)
+            {
+               checksum.update(input, start, Math.min(chunkSize, length - start));
+            }
+            assertThat("length " + length + " in chunks of " + chunkSize, checksum.getValue(), is(expected));
+         }
+
+         checksum.reset();
+         for (int i = 0; i < length; i++)
+         {
+            checksum.update(input[i]);
+         }
+         assertThat("length " + length + " byte by byte", checksum.getValue(), is(expected));
+      }
+   }
+
+   @Test
+   public void testRenderCache() throws IOException
+   {
+      final Path folder = this.folder.resolve("render-cache");
+      Files.createDirectories(folder);
+      final String text = "<!-- insert_code_fragment: cached | fenced:java -->\n"
+                          + "<!-- end_code_fragment: -->\n"
+                          + "<!-- insert_code_fragment: cached -->\n"
+                          + "<!-- end_code_fragment: -->\n";
+      for (int i = 0; i < 3; i++)
+      {
+         Files.write(folder.resolve("Page" + i + ".md"), text.getBytes(StandardCharsets.UTF_8));
+      }
+
+      final CodeFragments fragments = FulibTools.codeFragments();
+      fragments.addFragment("cached", "int x = 1;" + System.lineSeparator());
+      fragments.update(folder.toString());
+
+      // each combination of fragment and pipes is rendered once
+      assertThat(fragments.getRenderCacheMisses(), is(2L));
+      assertThat(fragments.getRenderCacheHits(), is(4L));
+
+      fragments.addFragment("cached", "int x = 2;" + System.lineSeparator());
+      fragments.writeChanged();
+
+      assertThat(fragments.getRenderCacheMisses(), is(4L));
+      assertThat(fragments.getRenderCacheHits(), is(8L));
+
+      final String actual = new String(Files.readAllBytes(folder.resolve("Page2.md")), StandardCharsets.UTF_8);
+      assertThat(actual.contains("```java" + System.lineSeparator() + "int x = 2;"), is(true));
+   }
+
+   @Test
+   public void testPipeChain() throws IOException
+   {
+      final Path folder = this.folder.resolve("pipe-chain");
+      final Path file = folder.resolve("Chain.md");
+      Files.createDirectories(folder);
+      final String text = "<!-- insert_code_fragment: chain | html | indent|fenced:java-->\n"
+                          + "<!-- end_code_fragment: -->\n"
+                          + "<!-- insert_code_fragment: chain | unknown | html -->\n"
+                          + "<!-- end_code_fragment: -->\n";
+      Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+
+      final CodeFragments fragments = FulibTools.codeFragments();
+      fragments.addFragment("chain", "a < b" + System.lineSeparator());
+      fragments.update(folder.toString());
+
+      final String nl = System.lineSeparator();
+      final String expected = "<!-- insert_code_fragment: chain | html | indent|fenced:java-->" + nl
+                              + "```java" + nl
+                              + "    a &lt; b" + nl
+                              + "```" + nl
+                              + "<!-- end_code_fragment: -->" + nl
+                              + "<!-- insert_code_fragment: chain | unknown | html -->" + nl
+                              + "a &lt; b" + nl
+                              + "<!-- end_code_fragment: -->" + nl;
+      assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), is(expected));
+   }
+
+   @Test
+   public void testLines() throws IOException
+   {
+      final String nl = System.lineSeparator();
+      for (String text : new String[] { "", "a", "a" + nl, nl + "a" + nl + nl + "b" + nl + nl, nl + nl })
+      {
+         final List<String> lines = new ArrayList<>();
+         Lines.forEach(text, (t, start, end) -> lines.add(t.subSequence(start, end).toString()));
+         assertThat(lines, is(Arrays.asList(text.split(nl))));
+      }
+
+      final StringBuilder out = new StringBuilder("> ");
+      new IndentPipe().apply((CharSequence) ("a" + nl + nl + "b" + nl), IndentPipe.NAME, out);
+      assertThat(out.toString(), is("> " + "    a" + nl + "    " + nl + "    b" + nl));
+   }
+
+   @Test
+   public void testStreamingPipe() throws IOException
+   {
+      final Pipe upper = (content, arg) -> content.toUpperCase();
+      final StringBuilder out = new StringBuilder();
+      StreamingPipe.of(upper).apply("a<b", "upper", out);
+      assertThat(out.toString(), is("A<B"));
+
+      final StreamingPipe html = StreamingPipe.of(FulibTools.codeFragments().getPipe("html"));
+      assertThat(html.apply("a<b", "html"), is("a&lt;b"));
+
+      final Path folder = this.folder.resolve("streaming-pipe");
+      final Path file = folder.resolve("Streaming.md");
+      Files.createDirectories(folder);
+      Files.write(file, ("<!-- insert_code_fragment: stream | shout | indent -->\n"
+                         + "<!-- end_code_fragment: -->\n").getBytes(StandardCharsets.UTF_8));
+
+      final CodeFragments fragments = FulibTools.codeFragments();
+      fragments.addPipe("shout", (StreamingPipe) (content, arg, o) -> o.append(content).append("!"));
+      fragments.addFragment("stream", "hi");
+      fragments.update(folder.toString());
+
+      final String nl = System.lineSeparator();
+      assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8),
+                 is("<!-- insert_code_fragment: stream | shout | indent -->" + nl + "    hi!" + nl
+                    + "<!-- end_code_fragment: -->" + nl));
+   }
+
+   @Test
+   public void testSharedFragments() throws IOException
+   {
+      final String nl = System.lineSeparator();
+      final StringBuilder builder = new StringBuilder();
+      for (int i = 0; i < 100; i++)
+      {
+         builder.append("line ").append(i).append(" \u00e4\u00f6\u00fc").append(nl);
+      }
+      final String large = builder.toString();
+
+      final CodeFragments fragments = FulibTools.codeFragments();
+      fragments.addFragment("small", "hello" + nl);
+      fragments.addFragment("large1", large);
+      fragments.addFragment("large2", new String(large.toCharArray()));
+      fragments.addFragment("small2", "hello" + nl);
+
+      assertThat(fragments.getFragment("large1"), is(large));
+      assertThat(fragments.getFragment("large2"), is(large));
+      assertThat(fragments.getFragment("small2"), is("hello" + nl));
+      assertThat(fragments.getFragment("missing"), is((String) null));
+      assertThat(new ArrayList<>(fragments.getFragments().keySet()),
+                 is(Arrays.asList("small", "large1", "large2", "small2")));
+      assertThat(fragments.getFragments().get("large2"), is(large));
+
+      final Path folder = this.folder.resolve("shared-fragments");
+      final Path file = folder.resolve("Shared.md");
+      Files.createDirectories(folder);
+      Files.write(file, ("<!-- insert_code_fragment: large2 -->\n<!-- end_code_fragment: -->\n")
+                           .getBytes(StandardCharsets.UTF_8));
+      fragments.update(folder.toString());
+
+      assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8),
+                 is("<!-- insert_code_fragment: large2 -->" + nl + large + "<!-- end_code_fragment: -->" + nl));
+   }
+
+   @Test
+   @SuppressWarnings("deprecation")
+   public void testFragmentMap() throws IOException
+   {
+      final String nl = System.lineSeparator();
+      final CodeFragments fragments = FulibTools.codeFragments();
+      final Map<String, String> fragmentMap = fragments.getFragmentMap();
+      assertThat(fragments.getFragmentMap(), sameInstance(fragmentMap));
+
+      fragments.addFragment("added", "added" + nl);
+      assertThat(fragmentMap.get("added"), is("added" + nl));
+
+      assertThat(fragmentMap.put("put", "put" + nl), is((String) null));
+      assertThat(fragmentMap.put("removed", "removed" + nl), is((String) null));
+      assertThat(fragmentMap.remove("removed"), is("removed" + nl));
+      assertThat(fragments.getFragment("put"), is("put" + nl));
+      assertThat(fragments.getFragment("removed"), is((String) null));
+      assertThat(new ArrayList<>(fragmentMap.keySet()), is(Arrays.asList("added", "put")));
+
+      // fragments put into the map are written like added ones
+      final Path folder = this.folder.resolve("fragment-map");
+      final Path file = folder.resolve("Map.md");
+      Files.createDirectories(folder);
+      Files.write(file, ("<!-- insert_code_fragment: put -->\n<!-- end_code_fragment: -->\n")
+                           .getBytes(StandardCharsets.UTF_8));
+      fragments.update(folder.toString());
+      fragmentMap.put("put", "changed" + nl);
+      fragments.writeChanged();
+
+      assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8),
+                 is("<!-- insert_code_fragment: put -->" + nl + "changed" + nl + "<!-- end_code_fragment: -->" + nl));
+
+      fragmentMap.clear();
+      assertThat(fragments.getFragments().isEmpty(), is(true));
+   }
+
+   @Test
+   public void testReport() throws IOException
+   {
+      final Path folder = this.folder.resolve("report");
+      Files.createDirectories(folder);
+      Files.write(folder.resolve("Report.md"), ("<!-- insert_code_fragment: known -->\n<!-- end_code_fragment: -->\n"
+                                                + "<!-- insert_code_fragment: unknown -->\n"
+                                                + "<!-- end_code_fragment: -->\n").getBytes(StandardCharsets.UTF_8));
+      Files.write(folder.resolve("notes.txt"), "ignored".getBytes(StandardCharsets.UTF_8));
+
+      final CodeFragments fragments = FulibTools.codeFragments();
+      fragments.addFragment("known", "hello" + System.lineSeparator());
+      fragments.update(folder.toString());
+
+      final CodeFragmentsReport report = fragments.getReport();
+      assertThat(report.getFilesScanned(), is(1L));
+      assertThat(report.getFilesSkipped(), is(1L));
+      assertThat(report.getFilesRewritten(), is(1L));
+      assertThat(report.getInsertions(), is(1L));
+      assertThat(report.getBytesWritten(), is(Files.size(folder.resolve("Report.md"))));
+      assertThat(report.getPhaseNanos().keySet(), is(new HashSet<>(Arrays.asList("load", "write"))));
+      assertThat(report.getWarnings().size(), is(1));
+      assertThat(report.getWarnings().get(0).getLine(), is(3));
+      assertThat(report.toJson().contains("\"message\": \"undefined fragment 'unknown' was not inserted\""), is(true));
+
+      fragments.update(folder.toString());
+      assertThat(fragments.getReport().getFilesRewritten(), is(0L));
+      assertThat(fragments.getReport().getBytesWritten(), is(0L));
+   }
+
+   @Test
+   public void testUpdateInMemory()
+   {
+      final String nl = System.lineSeparator();
+      final Map<String, CharSequence> files = new LinkedHashMap<>();
+      files.put("docs/Page.md", "<!-- insert_code_fragment: memory | fenced:java -->\n<!-- end_code_fragment: -->\n");
+      files.put("src/Memory.java", "// start_code_fragment: memory\nint x;\n// end_code_fragment:\n");
+      files.put("notes.txt", "<!-- insert_code_fragment: memory -->\n<!-- end_code_fragment: -->\n");
+
+      final CodeFragments fragments = FulibTools.codeFragments();
+      final Map<String, String> result = fragments.update(files);
+
+      assertThat(new ArrayList<>(result.keySet()), is(Arrays.asList("docs/Page.md", "src/Memory.java", "notes.txt")));
+      assertThat(result.get("docs/Page.md"),
+                 is("<!-- insert_code_fragment: memory | fenced:java -->" + nl + "```java" + nl + "int x;" + nl + "```"
+                    + nl + "<!-- end_code_fragment: -->" + nl));
+      assertThat(result.get("src/Memory.java"), is(files.get("src/Memory.java")));
+      assertThat(result.get("notes.txt"), is(files.get("notes.txt")));
+      assertThat(fragments.getFragment("memory"), is("int x;" + nl));
+      assertThat(fragments.getReport().getFilesRewritten(), is(1L));
+   }
+
+   @Test
+   public void testLazy()
+   {
+      final String nl = System.lineSeparator();
+      final Map<String, CharSequence> files = new LinkedHashMap<>();
+      files.put("Page.md", "<!-- insert_code_fragment: used -->\n<!-- end_code_fragment: -->\n");
+      files.put("Source.java", "// start_code_fragment: used\n"
+                               + "<!-- insert_code_fragment: nested -->\n<!-- end_code_fragment: -->\n"
+                               + "// end_code_fragment:\n"
+                               + "// start_code_fragment: nested\nint x;\n// end_code_fragment:\n"
+                               + "// start_code_fragment: unused\nint y;\n// end_code_fragment:\n");
+
+      final CodeFragments fragments = FulibTools.codeFragments().withLazy(true);
+      final Map<String, String> result = fragments.update(files);
+
+      assertThat(fragments.getFragment("unused"), is((String) null));
+      assertThat(fragments.getFragment("nested"), is("int x;" + nl));
+      assertThat(fragments.getReport().getFragmentsDefined(), is(2L));
+      assertThat(result.get("Page.md"),
+                 is("<!-- insert_code_fragment: used -->" + nl + "<!-- insert_code_fragment: nested -->" + nl
+                    + "<!-- end_code_fragment: -->" + nl + "<!-- end_code_fragment: -->" + nl));
+   }
+
+   @Test
+   public void testFileTypesAndExcludes() throws IOException
+   {
+      final Path folder = this.folder.resolve("file-types");
+      final Path buildFile = folder.resolve("build/Generated.md");
+      final Path scriptFile = folder.resolve("run.sh");
+      Files.createDirectories(buildFile.getParent());
+
+      final String insert = "<!-- insert_code_fragment: sh.hello -->\n<!-- end_code_fragment: -->\n";
+      Files.write(buildFile, insert.getBytes(StandardCharsets.UTF_8));
+      final String script = "# start_code_fragment: sh.hello\necho hello\n# end_code_fragment:\n"
+                            + "# <!-- insert_code_fragment: sh.hello -->\n# <!-- end_code_fragment: -->\n";
+      Files.write(scriptFile, script.getBytes(StandardCharsets.UTF_8));
+
+      final CodeFragments fragments = FulibTools.codeFragments().withExcludes("build");
+      fragments.addFileType("sh", new FileType("*.sh", "#", "#"));
+      fragments.update(folder.toString());
+
+      final String nl = System.lineSeparator();
+      assertThat(fragments.getFragment("sh.hello"), is("echo hello" + nl));
+
+      final String actualScript = new String(Files.readAllBytes(scriptFile), StandardCharsets.UTF_8);
+      assertThat(actualScript.contains("sh.hello -->" + nl + "# echo hello" + nl + "# <!-- end"), is(true));
+
+      // excluded directories are not visited
+      assertThat(new String(Files.readAllBytes(buildFile), StandardCharsets.UTF_8), is(insert));
+   }
+
+   @Test
+   public void testWatch() throws IOException, InterruptedException
+   {
+      final Path folder = this.folder.resolve("watch");
+      final Path javaFile = folder.resolve("Watched.java");
+      final Path mdFile = folder.resolve("Watched.md");
+      Files.createDirectories(folder);
+      Files.write(javaFile, "// start_code_fragment: watched\nbefore\n// end_code_fragment:\n".getBytes(
+         StandardCharsets.UTF_8));
+      Files.write(mdFile, "<!-- insert_code_fragment: watched -->\n<!-- end_code_fragment: -->\n".getBytes(
+         StandardCharsets.UTF_8));
+
+      final CodeFragments fragments = FulibTools.codeFragments();
+      try (Closeable ignored = fragments.watch(folder.toString()))
+      {
+         assertThat(new String(Files.readAllBytes(mdFile), StandardCharsets.UTF_8).contains("before"), is(true));
+
+         Files.write(javaFile, "// start_code_fragment: watched\nafter\n// end_code_fragment:\n".getBytes(
+            StandardCharsets.UTF_8));
+
+         // some platforms poll for changes, so give it plenty of time
+         final long deadline = System.currentTimeMillis() + 30_000;
+         while (!new String(Files.readAllBytes(mdFile), StandardCharsets.UTF_8).contains("after")
+                && System.currentTimeMillis() < deadline)
+         {
+            Thread.sleep(10);
+         }
+      }
+
+      synchronized (fragments)
+      {
+         assertThat(fragments.getFragment("watched"), is("after" + System.lineSeparator()));
+      }
+      assertThat(new String(Files.readAllBytes(mdFile), StandardCharsets.UTF_8).contains("after"), is(true));
+   }
+
+   @Test
+   public void testUpdateMatchesLoadAndWrite() throws IOException
+   {
+      final Path mdFile = this.folder.resolve("CodeFragmentExample.md");
+      final Path javaFile = this.folder.resolve("CodeFragmentExample.java");
+
+      final CodeFragments twoPhase = FulibTools.codeFragments();
+      twoPhase.addPipe("fencedCustom", new CodeFencePipe("custom"));
+      twoPhase.load(this.folder.toString());
+      twoPhase.write(this.folder.toString());
+      final byte[] expectedMd = Files.readAllBytes(mdFile);
+      final byte[] expectedJava = Files.readAllBytes(javaFile);
+
+      this.setup();
+      final CodeFragments singlePass = FulibTools.codeFragments();
+      this.checkUpdate(singlePass);
+
+      assertThat(singlePass.getFragments(), is(twoPhase.getFragments()));
+      assertThat(Files.readAllBytes(mdFile), is(expectedMd));
+      assertThat(Files.readAllBytes(javaFile), is(expectedJava));
+   }
+
+   @Test
+   public void testLargeFile() throws IOException
+   {
+      final Path largeFile = this.folder.resolve("Large.md");
+      final String nl = System.lineSeparator();
+      final StringBuilder text = new StringBuilder();
+      while (text.length() < 2 * 1024 * 1024)
+      {
+         text.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit.").append(nl);
+      }
+      final String insert = "<!-- insert_code_fragment: CodeFragmentExample.java.hello -->" + nl
+                            + "<!-- end_code_fragment: -->" + nl;
+      Files.write(largeFile, (text + insert + text).getBytes(StandardCharsets.UTF_8));
+
+      final CodeFragments fragments = FulibTools.codeFragments();
+      this.checkUpdate(fragments);
+
+      final String expected = text + "<!-- insert_code_fragment: CodeFragmentExample.java.hello -->" + nl
+                              + "System.out.println(\"Hello World\");" + nl + "<!-- end_code_fragment: -->" + nl
+                              + text;
+      assertThat(new String(Files.readAllBytes(largeFile), StandardCharsets.UTF_8), is(expected));
+
+      // the temporary file was moved into place
+      try (final Stream<Path> files = Files.list(this.folder))
+      {
+         assertThat(files.noneMatch(file -> file.toString().endsWith(".tmp")), is(true));
+      }
+   }
+
+   @Test
+   public void testMediumFiles() throws IOException
+   {
+      // small enough to be kept in memory, but larger than the read buffer
+      final Path markerFirstFile = this.folder.resolve("MarkerFirst.md");
+      final Path markerLastFile = this.folder.resolve("MarkerLast.md");
+      final String nl = System.lineSeparator();
+      final StringBuilder text = new StringBuilder();
+      while (text.length() < 200 * 1024)
+      {
+         text.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit.").append(nl);
+      }
+      final String insert = "<!-- insert_code_fragment: CodeFragmentExample.java.hello -->" + nl
+                            + "<!-- end_code_fragment: -->" + nl;
+      Files.write(markerFirstFile, (insert + text).getBytes(StandardCharsets.UTF_8));
+      Files.write(markerLastFile, (text + insert).getBytes(StandardCharsets.UTF_8));
+
+      this.checkUpdate(FulibTools.codeFragments());
+
+      final String inserted = "<!-- insert_code_fragment: CodeFragmentExample.java.hello -->" + nl
+                              + "System.out.println(\"Hello World\");" + nl + "<!-- end_code_fragment: -->" + nl;
+      assertThat(new String(Files.readAllBytes(markerFirstFile), StandardCharsets.UTF_8), is(inserted + text));
+      assertThat(new String(Files.readAllBytes(markerLastFile), StandardCharsets.UTF_8), is(text + inserted));
+   }
+
+   @Test
+   public void testWriteChanged() throws IOException
+   {
+      final Path otherFile = this.folder.resolve("Other.md");
+      final String otherText = "<!-- insert_code_fragment: CodeFragmentExample.java.special -->\n"
+                               + "<!-- end_code_fragment: -->\n";
+      Files.write(otherFile, otherText.getBytes(StandardCharsets.UTF_8));
+
+      final CodeFragments fragments = FulibTools.codeFragments();
+      this.checkUpdate(fragments);
+
+      // Other.md does not insert the changed fragment, so it must not be touched
+      Files.write(otherFile, otherText.getBytes(StandardCharsets.UTF_8));
+
+      fragments.addFragment("CodeFragmentExample.java.hello", "changed();" + System.lineSeparator());
+      fragments.writeChanged();
+
+      final String actualMd = new String(Files.readAllBytes(this.folder.resolve("CodeFragmentExample.md")),
+                                         StandardCharsets.UTF_8);
+      assertThat(actualMd.contains("changed();"), is(true));
+
+      final String actualOther = new String(Files.readAllBytes(otherFile), StandardCharsets.UTF_8);
+      assertThat(actualOther, is(otherText));
+   }
+
+   @Test
+   public void testUnicodeAndLineTerminators() throws IOException
+   {
+      final String text = "Gr\u00fc\u00dfe, \u4e16\u754c";
+      final Path javaFile = this.folder.resolve("Unicode.java");
+      final Path mdFile = this.folder.resolve("Unicode.md");
+      final String javaText = "// start_code_fragment: unicode\r\n" + text + "\r\n// end_code_fragment:\r\n";
+      final String mdText = "<!-- insert_code_fragment: unicode -->\r<!-- end_code_fragment: -->";
+      Files.write(javaFile, javaText.getBytes(StandardCharsets.UTF_8));
+      Files.write(mdFile, mdText.getBytes(StandardCharsets.UTF_8));
+
+      final CodeFragments fragments = FulibTools.codeFragments();
+      fragments.update(this.folder.toString());
+
+      final String nl = System.lineSeparator();
+      assertThat(fragments.getFragment("unicode"), is(text + nl));
+
+      final String actualMd = new String(Files.readAllBytes(mdFile), StandardCharsets.UTF_8);
+      assertThat(actualMd,
+                 is("<!-- insert_code_fragment: unicode -->" + nl + text + nl + "<!-- end_code_fragment: -->" + nl));
+   }
+
+   private void checkUpdate(CodeFragments fragments) throws IOException
+   {
       fragments.addPipe("fencedCustom", new CodeFencePipe("custom"));
-      fragments.update(FOLDER);
+      fragments.update(this.folder.toString());
       final Map<String, String> fragmentMap = fragments.getFragments();
 
       String codeFragmentExampleJavaHello = fragmentMap.get("CodeFragmentExample.java.hello");
       assertThat(codeFragmentExampleJavaHello, is("System.out.println(\"Hello World\");" + System.lineSeparator()));
 
-      final String actualMd = new String(Files.readAllBytes(Paths.get(FOLDER, "CodeFragmentExample.md")),
+      final String actualMd = new String(Files.readAllBytes(this.folder.resolve("CodeFragmentExample.md")),
                                          StandardCharsets.UTF_8);
 
       final String expectedMd = IOUtils.toString(this.getClass().getResource("CodeFragmentExample.md.txt"),
                                                  StandardCharsets.UTF_8);
       assertThat(actualMd, is(expectedMd));
 
-      final String actualJava = new String(Files.readAllBytes(Paths.get(FOLDER, "CodeFragmentExample.java")),
+      final String actualJava = new String(Files.readAllBytes(this.folder.resolve("CodeFragmentExample.java")),
                                            StandardCharsets.UTF_8);
 
       final String expectedJava = IOUtils.toString(this.getClass().getResource("CodeFragmentExample.java.txt"),
@@ -2,6 +2,10 @@ package org.fulib;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.fulib.tools.DiagramCache;
+import org.fulib.tools.DiagramJob;
+import org.fulib.tools.DiagramRenderer;
+import org.fulib.tools.DiagramResult;
 import org.fulib.tools.ObjectDiagrams;
 import org.fulib.yaml.YamlIdMap;
 import org.junit.Test;
@@ -14,6 +18,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -167,6 +177,203 @@ public class TestObjectDiagrams
       assertThat(svgText, containsString("luckyNumbers = [2, 4, 6]"));
    }
 
+   @Test
+   public void dumpAll() throws IOException
+   {
+      final String prefix = "tmp/objectDiagrams/dumpAll/studyRight";
+
+      final List<DiagramJob> jobs = new ArrayList<>();
+      for (int i = 0; i < 4; i++)
+      {
+         final StudyRight studyRight = new StudyRight().setId("studyRight" + i);
+         new Student().setUni(studyRight).setName("Alice" + i);
+         jobs.add(DiagramJob.svg(prefix + i + ".svg", studyRight));
+      }
+      jobs.add(DiagramJob.png(prefix + ".png", new StudyRight().setId("studyRight")));
+
+      final List<CompletableFuture<DiagramResult>> results = FulibTools.objectDiagrams().withRenderThreads(2)
+                                                                       .dumpAll(jobs);
+
+      assertThat(results.size(), equalTo(jobs.size()));
+      for (int i = 0; i < 4; i++)
+      {
+         assertThat(results.get(i).join().getFileName(), equalTo(prefix + i + ".svg"));
+
+         final String svgText = FileUtils.readFileToString(new File(prefix + i + ".svg"), StandardCharsets.UTF_8);
+         assertThat(svgText, containsString("studyRight" + i + " :StudyRight"));
+         assertThat(svgText, containsString("alice" + i + " :Student"));
+      }
+      assertThat(results.get(4).join().getFileName(), equalTo(prefix + ".png"));
+      assertThat(new File(prefix + ".png").exists(), equalTo(true));
+   }
+
+   @Test
+   public void dumpDot() throws IOException
+   {
+      final String prefix = "tmp/objectDiagrams/dumpDot/studyRight";
+
+      StudyRight studyRight = new StudyRight().setId("studyRight");
+      new Student().setUni(studyRight).setName("Alice");
+
+      final ObjectDiagrams diagrams = FulibTools.objectDiagrams().withRenderer(DiagramRenderer.none());
+      assertThat(diagrams.dumpDot(prefix + ".dot", studyRight), equalTo(prefix + ".dot"));
+
+      final String dotText = FileUtils.readFileToString(new File(prefix + ".dot"), StandardCharsets.UTF_8);
+      assertThat(dotText, startsWith("digraph \"studyRight\""));
+      assertThat(dotText, containsString("alice :Student"));
+
+      new File(prefix + ".svg").delete();
+      diagrams.dumpSVG(prefix + ".svg", studyRight);
+      assertThat(new File(prefix + ".svg").exists(), equalTo(false));
+
+      final List<String> renderedFiles = new ArrayList<>();
+      diagrams.setRenderer((dotString, format, scale, file) -> {
+         assertThat(dotString, equalTo(dotText));
+         renderedFiles.add(file.getName());
+      });
+      diagrams.dumpPng(prefix + ".png", studyRight);
+      assertThat(renderedFiles, hasItems("studyRight.png"));
+   }
+
+   @Test
+   public void dumpDotBidirectionalEdges() throws IOException
+   {
+      final String prefix = "tmp/objectDiagrams/dumpDotBidirectionalEdges/studyRight";
+
+      StudyRight studyRight = new StudyRight().setId("studyRight");
+      new Student().setUni(studyRight).setName("Alice");
+      new Student().setUni(studyRight).setName("Bob");
+
+      final ObjectDiagrams diagrams = FulibTools.objectDiagrams().withRenderer(DiagramRenderer.none());
+      diagrams.dumpDot(prefix + "1.dot", studyRight);
+      diagrams.dumpDot(prefix + "2.dot", studyRight);
+
+      final String dotText = FileUtils.readFileToString(new File(prefix + "1.dot"), StandardCharsets.UTF_8);
+      final String dotTextAgain = FileUtils.readFileToString(new File(prefix + "2.dot"), StandardCharsets.UTF_8);
+      assertThat(dotTextAgain, equalTo(dotText));
+
+      // students and uni are two ends of the same link, so there is one edge per student with both labels
+      assertThat(count(dotText, " -> "), equalTo(2));
+      assertThat(count(dotText, "label=\"students\""), equalTo(2));
+      assertThat(count(dotText, "label=\"uni\""), equalTo(2));
+   }
+
+   private static int count(String text, String part)
+   {
+      return text.split(Pattern.quote(part), -1).length - 1;
+   }
+
+   @Test
+   public void cache() throws IOException
+   {
+      final String prefix = "tmp/objectDiagrams/cache/";
+      FileUtils.deleteDirectory(new File(prefix));
+
+      final DiagramCache cache = new DiagramCache(prefix + "cache");
+      final List<String> renderedFiles = new ArrayList<>();
+      final ObjectDiagrams diagrams = FulibTools.objectDiagrams().withCache(cache).withRenderer(
+         (dotString, format, scale, file) -> {
+            renderedFiles.add(file.getName());
+            FileUtils.writeStringToFile(file, dotString, StandardCharsets.UTF_8);
+         });
+
+      final StudyRight studyRight = new StudyRight().setId("studyRight");
+      diagrams.dumpSVG(prefix + "first.svg", studyRight);
+      diagrams.dumpSVG(prefix + "second.svg", studyRight);
+      diagrams.dumpPng(prefix + "first.png", studyRight);
+
+      assertThat(renderedFiles, equalTo(Arrays.asList("first.svg", "first.png")));
+      assertThat(cache.getHits(), equalTo(1L));
+      assertThat(cache.getMisses(), equalTo(2L));
+
+      final String firstText = FileUtils.readFileToString(new File(prefix + "first.svg"), StandardCharsets.UTF_8);
+      final String secondText = FileUtils.readFileToString(new File(prefix + "second.svg"), StandardCharsets.UTF_8);
+      assertThat(secondText, equalTo(firstText));
+
+      // changed objects are rendered again, and a cache without space forgets everything
+      cache.setMaxSize(0);
+      studyRight.setDescription("changed");
+      diagrams.dumpSVG(prefix + "changed.svg", studyRight);
+      diagrams.dumpSVG(prefix + "second.svg", new StudyRight().setId("studyRight"));
+
+      assertThat(renderedFiles, equalTo(Arrays.asList("first.svg", "first.png", "changed.svg", "second.svg")));
+      assertThat(cache.getHits(), equalTo(1L));
+   }
+
+   @Test
+   public void skipUnchanged() throws IOException
+   {
+      final String prefix = "tmp/objectDiagrams/skipUnchanged/studyRight";
+      FileUtils.deleteDirectory(new File(prefix).getParentFile());
+
+      final ObjectDiagrams diagrams = FulibTools.objectDiagrams().withRenderer(
+         (dotString, format, scale, file) -> FileUtils.writeStringToFile(file, dotString, StandardCharsets.UTF_8));
+      final StudyRight studyRight = new StudyRight().setId("studyRight");
+
+      diagrams.dumpDot(prefix + ".dot", studyRight);
+      diagrams.dumpSVG(prefix + ".svg", studyRight);
+      assertThat(diagrams.getFilesWritten(), equalTo(2L));
+
+      final File dotFile = new File(prefix + ".dot");
+      final File svgFile = new File(prefix + ".svg");
+      final long oldTime = 1_000_000_000_000L;
+      assertThat(dotFile.setLastModified(oldTime), equalTo(true));
+      assertThat(svgFile.setLastModified(oldTime), equalTo(true));
+
+      diagrams.dumpDot(prefix + ".dot", studyRight);
+      diagrams.dumpSVG(prefix + ".svg", studyRight);
+      assertThat(diagrams.getFilesWritten(), equalTo(2L));
+      assertThat(diagrams.getFilesUnchanged(), equalTo(2L));
+      assertThat(dotFile.lastModified(), equalTo(oldTime));
+      assertThat(svgFile.lastModified(), equalTo(oldTime));
+
+      studyRight.setDescription("changed");
+      diagrams.dumpDot(prefix + ".dot", studyRight);
+      diagrams.dumpSVG(prefix + ".svg", studyRight);
+      assertThat(diagrams.getFilesWritten(), equalTo(4L));
+
+      assertThat(FileUtils.readFileToString(dotFile, StandardCharsets.UTF_8), containsString("changed"));
+      assertThat(FileUtils.readFileToString(svgFile, StandardCharsets.UTF_8), containsString("changed"));
+
+      // each call reports its own outcome
+      assertThat(diagrams.dump(DiagramJob.dot(prefix + ".dot", studyRight)).isWritten(), equalTo(false));
+      final List<CompletableFuture<DiagramResult>> results = diagrams.dumpAll(
+         Arrays.asList(DiagramJob.svg(prefix + ".svg", studyRight), DiagramJob.svg(prefix + "New.svg", studyRight)));
+      assertThat(results.get(0).join().isWritten(), equalTo(false));
+      assertThat(results.get(1).join().isWritten(), equalTo(true));
+      assertThat(diagrams.getFilesWritten(), equalTo(5L));
+      assertThat(diagrams.getFilesUnchanged(), equalTo(4L));
+      new File(prefix + "New.svg").delete();
+
+      // diagrams spanning several blocks that only differ at the end
+      final StringBuilder description = new StringBuilder();
+      for (int i = 0; i < 20_000; i++)
+      {
+         description.append('a');
+      }
+      studyRight.setDescription(description.toString());
+      assertThat(diagrams.dump(DiagramJob.svg(prefix + ".svg", studyRight)).isWritten(), equalTo(true));
+      assertThat(diagrams.dump(DiagramJob.svg(prefix + ".svg", studyRight)).isWritten(), equalTo(false));
+      studyRight.setDescription(description.append('b').toString());
+      assertThat(diagrams.dump(DiagramJob.svg(prefix + ".svg", studyRight)).isWritten(), equalTo(true));
+
+      // no temporary files are left behind
+      assertThat(new File(prefix).getParentFile().list().length, equalTo(2));
+   }
+
+   @Test
+   public void warmUp()
+   {
+      final Duration time = FulibTools.warmUp().join();
+      assertThat(time.isNegative(), equalTo(false));
+
+      // only initialized once
+      assertThat(FulibTools.warmUp().join(), sameInstance(time));
+
+      final String fileName = "tmp/objectDiagrams/warmUp.svg";
+      assertThat(FulibTools.objectDiagrams().dumpSVG(fileName, new StudyRight()), equalTo(fileName));
+   }
+
    @Test
    public void dumpYaml() throws IOException
    {
@@ -0,0 +1,58 @@
+package org.fulib.tools;
+
+/**
+ * Helpers for the benchmarks, whose main methods take the problem sizes to measure as arguments.
+ */
+public final class Benchmarks
+{
+   /**
+    * The number of measured runs, of which the best is reported.
+    */
+   public static final int RUNS = 5;
+
+   private Benchmarks()
+   {
+   }
+
+   /**
+    * @param args
+    *    the arguments of the main method
+    * @param defaultSizes
+    *    the sizes to measure if there are no arguments
+    *
+    * @return the sizes given as arguments, or the default sizes
+    */
+   public static int[] parseSizes(String[] args, int... defaultSizes)
+   {
+      if (args.length == 0)
+      {
+         return defaultSizes;
+      }
+
+      final int[] sizes = new int[args.length];
+      for (int i = 0; i < args.length; i++)
+      {
+         sizes[i] = Integer.parseInt(args[i]);
+      }
+      return sizes;
+   }
+
+   /**
+    * @param run
+    *    the code to measure
+    *
+    * @return the best time of {@link #RUNS} runs, in nanoseconds, after one run to warm up
+    */
+   public static long measure(Runnable run)
+   {
+      run.run();
+      long best = Long.MAX_VALUE;
+      for (int i = 0; i < RUNS; i++)
+      {
+         final long start = System.nanoTime();
+         run.run();
+         best = Math.min(best, System.nanoTime() - start);
+      }
+      return best;
+   }
+}
@@ -0,0 +1,106 @@
+package org.fulib.tools;
+
+import org.fulib.tools.fragments.FileType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures how much the marker prefilter of {@link CodeFragments} speeds up scanning large files for fragments.
+ * <p>
+ * With the prefilter, only lines that contain the marker token are decoded and matched against the start pattern,
+ * like in {@code CodeFragments}.
+ * Without it, every line is decoded and matched.
+ * Both are measured on files without any markers and on files with a fragment every {@link #SPARSE_LINES} lines.
+ * <p>
+ * Run the main method with the file sizes to measure in bytes, e.g. {@code 1048576 16777216}.
+ */
+public class CodeFragmentsBenchmark
+{
+   // the token CodeFragments searches for
+   private static final byte[] MARKER_BYTES = "_code_fragment:".getBytes(StandardCharsets.US_ASCII);
+   private static final MarkerSyntax SYNTAX = new MarkerSyntax(FileType.JAVA);
+
+   private static final int SPARSE_LINES = 1000;
+   private static final long BYTES_PER_RUN = 64L * 1024 * 1024;
+
+   // keeps the JIT from skipping the matching
+   private static volatile int sink;
+
+   public static void main(String[] args)
+   {
+      for (final int size : Benchmarks.parseSizes(args, 1024 * 1024, 16 * 1024 * 1024))
+      {
+         final byte[] markerFree = createFile(size, 0);
+         final byte[] markerSparse = createFile(size, SPARSE_LINES);
+         System.out.printf("%,d bytes without markers: %s%n", size, measure(markerFree));
+         System.out.printf("%,d bytes with a fragment every %,d lines: %s%n", size, SPARSE_LINES,
+                           measure(markerSparse));
+      }
+   }
+
+   private static String measure(byte[] file)
+   {
+      final long files = Math.max(1, BYTES_PER_RUN / file.length);
+      final long prefiltered = Benchmarks.measure(() -> scan(file, files, true));
+      final long unfiltered = Benchmarks.measure(() -> scan(file, files, false));
+      return String.format("%,.0f MiB/s with prefilter, %,.0f MiB/s without",
+                           megabytesPerSecond(file, files, prefiltered), megabytesPerSecond(file, files, unfiltered));
+   }
+
+   private static double megabytesPerSecond(byte[] file, long files, long nanos)
+   {
+      return files * file.length / (nanos / 1e9) / (1024 * 1024);
+   }
+
+   private static void scan(byte[] file, long files, boolean prefilter)
+   {
+      int fragments = 0;
+      for (long f = 0; f < files; f++)
+      {
+         try (final ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream(file), null))
+         {
+            while (prefilter ? reader.nextLineContaining(MARKER_BYTES) : reader.nextLine())
+            {
+               if (SYNTAX.startPattern.matcher(reader.getLine()).find())
+               {
+                  fragments++;
+               }
+            }
+         }
+         catch (IOException e)
+         {
+            throw new UncheckedIOException(e);
+         }
+      }
+      sink = fragments;
+   }
+
+   /**
+    * @param size
+    *    the size in bytes
+    * @param fragmentLines
+    *    the number of lines between fragments, or {@code 0} for a file without markers
+    *
+    * @return the content of a Java file of about the given size
+    */
+   private static byte[] createFile(int size, int fragmentLines)
+   {
+      final StringBuilder text = new StringBuilder(size + 100);
+      text.append("class Source\n{\n");
+      for (int i = 0; text.length() < size; i++)
+      {
+         if (fragmentLines > 0 && i % fragmentLines == 0)
+         {
+            text.append("   // start_code_fragment: Source.").append(i).append('\n');
+            text.append("   int fragment").append(i).append(" = ").append(i).append(";\n");
+            text.append("   // end_code_fragment:\n");
+         }
+         text.append("   int field").append(i).append(" = ").append(i * 31).append(";\n");
+      }
+      text.append("}\n");
+      return text.toString().getBytes(StandardCharsets.UTF_8);
+   }
+}
@@ -0,0 +1,49 @@
+package org.fulib.tools;
+
+import studyRight.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how long {@link ObjectDiagrams} takes to build the DOT text of large object graphs.
+ * <p>
+ * Run the main method with the numbers of links to measure, e.g. {@code 10000 50000 100000}.
+ */
+public class ObjectDiagramsBenchmark
+{
+   private static final int FAN_OUT = 10;
+
+   // keeps the JIT from skipping the rendering, and reports its size
+   private static volatile int length;
+
+   public static void main(String[] args)
+   {
+      for (final int size : Benchmarks.parseSizes(args, 10_000, 50_000, 100_000))
+      {
+         final Node root = createTree(size);
+         final long best = Benchmarks.measure(() -> length = new ObjectDiagrams().toDot(root).length());
+         System.out.printf("%,d links: %,d ms (%,d characters)%n", size, best / 1_000_000, length);
+      }
+   }
+
+   /**
+    * @param links
+    *    the number of parent-child links
+    *
+    * @return the root of a tree in which every node has up to {@link #FAN_OUT} children
+    */
+   private static Node createTree(int links)
+   {
+      final List<Node> nodes = new ArrayList<>(links + 1);
+      final Node root = new Node().setId("n0");
+      nodes.add(root);
+      for (int i = 1; i <= links; i++)
+      {
+         final Node child = new Node().setId("n" + i);
+         nodes.get((i - 1) / FAN_OUT).withChildren(child);
+         nodes.add(child);
+      }
+      return root;
+   }
+}
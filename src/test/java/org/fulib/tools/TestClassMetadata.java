@@ -0,0 +1,96 @@
+package org.fulib.tools;
+
+import org.fulib.yaml.Reflector;
+import org.fulib.yaml.ReflectorMap;
+import org.junit.Test;
+import studyRight.Person;
+import studyRight.Student;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TestClassMetadata
+{
+   @Test
+   public void inheritedGetter()
+   {
+      final Student alice = new Student();
+      alice.setName("Alice");
+      final Reflector reflector = new ReflectorMap(Student.class.getPackage().getName()).getReflector(alice);
+
+      final ClassMetadata metadata = ClassMetadata.of(Student.class);
+      assertThat(metadata.getValue(alice, "name", reflector), equalTo("Alice"));
+      assertThat(metadata.getType("name"), equalTo(String.class));
+
+      // the subclass has its own metadata, but the getter is the one of the superclass
+      assertThat(ClassMetadata.of(Student.class), not(sameInstance(ClassMetadata.of(Person.class))));
+      assertThat(ClassMetadata.of(Person.class).getValue(alice, "name", reflector), equalTo("Alice"));
+   }
+
+   @Test
+   public void reflectorFallback()
+   {
+      final Reflector reflector = new Reflector()
+      {
+         @Override
+         public Object getValue(Object object, String attrName)
+         {
+            return "reflector";
+         }
+      };
+
+      // the getter of a non-public class cannot be looked up, so the reflector gets the value
+      final ClassMetadata hiddenMetadata = ClassMetadata.of(Hidden.class);
+      assertThat(hiddenMetadata.getValue(new Hidden(), "name", reflector), equalTo("reflector"));
+      assertThat(hiddenMetadata.getType("name"), equalTo(String.class));
+
+      // so does a property without a getter
+      final ClassMetadata circleMetadata = ClassMetadata.of(Circle.class);
+      assertThat(circleMetadata.getValue(new Circle(), "missing", reflector), equalTo("reflector"));
+      assertThat(circleMetadata.getType("missing"), nullValue());
+
+      // otherwise, the reflector is not used
+      assertThat(circleMetadata.getValue(new Circle(), "size", reflector), equalTo(2.5));
+   }
+
+   @Test
+   public void sharedPropertyNames()
+   {
+      final Reflector reflector = new Reflector();
+
+      final ClassMetadata circleMetadata = ClassMetadata.of(Circle.class);
+      final ClassMetadata labelMetadata = ClassMetadata.of(Label.class);
+
+      assertThat(circleMetadata.getValue(new Circle(), "size", reflector), equalTo(2.5));
+      assertThat(labelMetadata.getValue(new Label(), "size", reflector), equalTo("large"));
+      assertThat(circleMetadata.getType("size"), equalTo(double.class));
+      assertThat(labelMetadata.getType("size"), equalTo(String.class));
+
+      // the first lookup does not leak into the other class
+      assertThat(circleMetadata.getValue(new Circle(), "size", reflector), equalTo(2.5));
+   }
+
+   public static class Circle
+   {
+      public double getSize()
+      {
+         return 2.5;
+      }
+   }
+
+   public static class Label
+   {
+      public String getSize()
+      {
+         return "large";
+      }
+   }
+
+   static class Hidden
+   {
+      public String getName()
+      {
+         return "hidden";
+      }
+   }
+}
@@ -0,0 +1,28 @@
+package org.fulib.tools;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TestCodeFragmentsReport
+{
+   @Test
+   public void warnings()
+   {
+      final CodeFragmentsReport report = new CodeFragmentsReport();
+      final CodeFragmentsReport.Warning inLine = report.addWarning("docs/README.md", 3, "undefined fragment 'a'");
+      final CodeFragmentsReport.Warning inFile = report.addWarning("docs/README.md", 0, "file read problem");
+      final CodeFragmentsReport.Warning general = report.addWarning(null, 0, "file walk problem");
+
+      assertThat(inLine.toString(), equalTo("docs/README.md:3: warning: undefined fragment 'a'"));
+      assertThat(inFile.toString(), equalTo("docs/README.md: warning: file read problem"));
+      assertThat(general.toString(), equalTo("warning: file walk problem"));
+
+      final String json = report.toJson();
+      assertThat(json, containsString("{ \"file\": \"docs/README.md\", \"line\": 3, "));
+      assertThat(json, containsString("{ \"file\": \"docs/README.md\", \"line\": null, "));
+      assertThat(json, containsString("{ \"file\": null, \"line\": null, \"message\": \"file walk problem\" }"));
+   }
+}
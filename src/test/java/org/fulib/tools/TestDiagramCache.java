@@ -0,0 +1,89 @@
+package org.fulib.tools;
+
+import guru.nidi.graphviz.engine.Format;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TestDiagramCache
+{
+   @Rule
+   public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+   @Test
+   public void evictLeastRecentlyUsed() throws IOException
+   {
+      final Path folder = this.temporaryFolder.getRoot().toPath();
+      final Path cacheDirectory = folder.resolve("cache");
+      final Path diagram = folder.resolve("diagram.svg");
+      Files.write(diagram, new byte[300]);
+
+      final DiagramCache cache = new DiagramCache(cacheDirectory.toString()).withMaxSize(1000);
+      for (int i = 0; i < 3; i++)
+      {
+         cache.add("diagram" + i, diagram);
+         setLastModified(cacheDirectory.resolve("diagram" + i), i);
+      }
+      assertThat(getSize(cacheDirectory), equalTo(900L));
+
+      // exceeds the maximum, so the oldest diagrams are deleted until three quarters of it are left
+      cache.add("diagram3", diagram);
+      assertThat(getSize(cacheDirectory), equalTo(600L));
+      assertThat(Files.exists(cacheDirectory.resolve("diagram0")), equalTo(false));
+      assertThat(Files.exists(cacheDirectory.resolve("diagram1")), equalTo(false));
+      assertThat(Files.exists(cacheDirectory.resolve("diagram2")), equalTo(true));
+      assertThat(Files.exists(cacheDirectory.resolve("diagram3")), equalTo(true));
+
+      // a new instance determines the size of the existing directory
+      final DiagramCache other = new DiagramCache(cacheDirectory.toString()).withMaxSize(1000);
+      other.add("diagram4", diagram);
+      assertThat(getSize(cacheDirectory), equalTo(900L));
+      other.add("diagram5", diagram);
+      assertThat(getSize(cacheDirectory), equalTo(600L));
+
+      // after clearing, the size is determined again
+      cache.clear();
+      cache.add("diagram6", diagram);
+      assertThat(getSize(cacheDirectory), equalTo(300L));
+   }
+
+   @Test
+   public void keyIncludesRenderer()
+   {
+      final String dotString = "graph { a -- b }";
+      final String graphviz = DiagramRenderer.graphviz().getName();
+      final String dot = DiagramRenderer.executable("dot").getName();
+
+      assertThat(dot, equalTo("dot -T<type> -Gdpi=<dpi> -o<file>"));
+      assertThat(DiagramCache.getKey(graphviz, dotString, Format.SVG, 1),
+                 equalTo(DiagramCache.getKey(DiagramRenderer.graphviz().getName(), dotString, Format.SVG, 1)));
+      assertThat(DiagramCache.getKey(graphviz, dotString, Format.SVG, 1),
+                 not(equalTo(DiagramCache.getKey(dot, dotString, Format.SVG, 1))));
+      final String otherDot = DiagramRenderer.executable("/opt/graphviz/bin/dot").getName();
+      assertThat(DiagramCache.getKey(dot, dotString, Format.SVG, 1),
+                 not(equalTo(DiagramCache.getKey(otherDot, dotString, Format.SVG, 1))));
+   }
+
+   private static void setLastModified(Path path, int minutes) throws IOException
+   {
+      Files.setLastModifiedTime(path, FileTime.fromMillis(1_000_000_000_000L + minutes * 60_000L));
+   }
+
+   private static long getSize(Path directory) throws IOException
+   {
+      try (final Stream<Path> paths = Files.list(directory))
+      {
+         return paths.mapToLong(path -> path.toFile().length()).sum();
+      }
+   }
+}
@@ -0,0 +1,64 @@
+package org.fulib.tools;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TestFragmentWatcher
+{
+   @Rule
+   public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+   @Test
+   public void testOverflowInLazyMode() throws IOException
+   {
+      final Path folder = this.temporaryFolder.getRoot().toPath();
+      final Path javaFile = folder.resolve("Source.java");
+      final Path mdFile = folder.resolve("Page.md");
+      Files.write(javaFile, source("inserted", "unused").getBytes(StandardCharsets.UTF_8));
+      Files.write(mdFile, ("<!-- insert_code_fragment: Source.inserted -->\n<!-- end_code_fragment: -->\n").getBytes(
+         StandardCharsets.UTF_8));
+
+      final String[] folders = { folder.toString() };
+      final CodeFragments fragments = new CodeFragments().withLazy(true);
+      final FragmentWatcher watcher = new FragmentWatcher(fragments, folders, 0);
+      try
+      {
+         // like watch, without the background thread
+         fragments.update(FileSystems.getDefault(), folders, false);
+         assertThat(fragments.getFragments().get("Source.unused"), containsString("unused"));
+
+         // the change is lost in an overflow
+         Files.write(javaFile, source("inserted", "changed").getBytes(StandardCharsets.UTF_8));
+         watcher.process(true, new LinkedHashSet<>(), new LinkedHashSet<>());
+
+         // fragments that are not inserted yet are still loaded, so later edits can insert them
+         assertThat(fragments.getFragments().get("Source.unused"), containsString("changed"));
+         assertThat(new String(Files.readAllBytes(mdFile), StandardCharsets.UTF_8),
+                    containsString("String inserted = \"inserted\";"));
+      }
+      finally
+      {
+         watcher.close();
+      }
+   }
+
+   private static String source(String inserted, String unused)
+   {
+      return "class Source\n{\n"
+             + "   // start_code_fragment: Source.inserted\n   String inserted = \"" + inserted + "\";\n"
+             + "   // end_code_fragment:\n"
+             + "   // start_code_fragment: Source.unused\n   String unused = \"" + unused + "\";\n"
+             + "   // end_code_fragment:\n}\n";
+   }
+}
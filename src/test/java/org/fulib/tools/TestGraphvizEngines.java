@@ -0,0 +1,81 @@
+package org.fulib.tools;
+
+import org.junit.Test;
+import studyRight.Student;
+import studyRight.StudyRight;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TestGraphvizEngines
+{
+   @Test(expected = IllegalArgumentException.class)
+   public void setThreadsZero()
+   {
+      GraphvizEngines.setThreads(0);
+   }
+
+   @Test
+   public void dumpAllRendersInParallel() throws Exception
+   {
+      final String prefix = "tmp/graphvizEngines/dumpAll/studyRight";
+      final int threads = 3;
+
+      final List<DiagramJob> jobs = new ArrayList<>();
+      for (int i = 0; i < 2 * threads; i++)
+      {
+         final StudyRight studyRight = new StudyRight().setId("studyRight" + i);
+         new Student().setUni(studyRight).setName("Alice" + i);
+         jobs.add(DiagramJob.svg(prefix + i + ".svg", studyRight));
+      }
+
+      // renders on the engine threads like the default renderer, but each rendering waits for the others,
+      // so this fails with a timeout if the diagrams were rendered one by one
+      final CyclicBarrier barrier = new CyclicBarrier(threads);
+      final DiagramRenderer renderer = (dotString, format, scale, file) -> GraphvizEngines.render(() -> {
+         try
+         {
+            barrier.await(10, TimeUnit.SECONDS);
+         }
+         catch (Exception e)
+         {
+            throw new IOException("diagrams were not rendered in parallel", e);
+         }
+         Files.write(file.toPath(), dotString.getBytes(StandardCharsets.UTF_8));
+      });
+
+      final int oldThreads = GraphvizEngines.getThreads();
+      GraphvizEngines.setThreads(threads);
+      try
+      {
+         final ObjectDiagrams diagrams = new ObjectDiagrams().withRenderer(renderer).withRenderThreads(threads);
+         final List<CompletableFuture<DiagramResult>> results = diagrams.dumpAll(jobs);
+         for (int i = 0; i < jobs.size(); i++)
+         {
+            assertThat(results.get(i).join().getFileName(), equalTo(prefix + i + ".svg"));
+            assertThat(new File(prefix + i + ".svg").exists(), equalTo(true));
+         }
+
+         // more render threads do not add engine threads
+         final ObjectDiagrams moreDiagrams = new ObjectDiagrams().withRenderer(DiagramRenderer.none())
+                                                                 .withRenderThreads(2 * threads);
+         final List<CompletableFuture<DiagramResult>> moreResults = moreDiagrams.dumpAll(jobs);
+         CompletableFuture.allOf(moreResults.toArray(new CompletableFuture<?>[0])).join();
+         assertThat(GraphvizEngines.getThreads(), equalTo(threads));
+      }
+      finally
+      {
+         GraphvizEngines.setThreads(oldThreads);
+      }
+   }
+}
@@ -0,0 +1,60 @@
+package org.fulib.tools.fragments;
+
+import org.fulib.tools.Benchmarks;
+
+import java.util.Random;
+import java.util.zip.Checksum;
+
+/**
+ * Measures the throughput of the {@link ChangeDetector} implementations for typical source and documentation file
+ * sizes.
+ * Input is fed in chunks of the size of the read buffer of {@code CodeFragments}, like when files are scanned.
+ * <p>
+ * Run the main method with the file sizes to measure in bytes, e.g. {@code 1024 16384 262144 4194304}.
+ */
+public class ChangeDetectorBenchmark
+{
+   private static final ChangeDetector[] DETECTORS = { new XxHash64ChangeDetector(), new Sha1ChangeDetector() };
+   private static final int CHUNK_SIZE = 64 * 1024;
+   private static final long BYTES_PER_RUN = 64L * 1024 * 1024;
+
+   // keeps the JIT from skipping the hashing
+   private static volatile long sink;
+
+   public static void main(String[] args)
+   {
+      for (final int size : Benchmarks.parseSizes(args, 1024, 16 * 1024, 256 * 1024, 4 * 1024 * 1024))
+      {
+         final byte[] file = new byte[size];
+         new Random(42).nextBytes(file);
+         final long files = Math.max(1, BYTES_PER_RUN / size);
+
+         final StringBuilder line = new StringBuilder(String.format("%,d bytes:", size));
+         for (final ChangeDetector detector : DETECTORS)
+         {
+            final long best = Benchmarks.measure(() -> {
+               long hashes = 0;
+               for (long f = 0; f < files; f++)
+               {
+                  hashes += hash(detector, file);
+               }
+               sink = hashes;
+            });
+
+            final double megabytesPerSecond = files * size / (best / 1e9) / (1024 * 1024);
+            line.append(String.format(" %s %,.0f MiB/s", detector.getName(), megabytesPerSecond));
+         }
+         System.out.println(line);
+      }
+   }
+
+   private static long hash(ChangeDetector detector, byte[] file)
+   {
+      final Checksum checksum = detector.newChecksum();
+      for (int start = 0; start < file.length; start += CHUNK_SIZE)
+      {
+         checksum.update(file, start, Math.min(CHUNK_SIZE, file.length - start));
+      }
+      return checksum.getValue();
+   }
+}